@@ -0,0 +1,48 @@
+package me.mrletsplay.jareditor.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+
+// Classes read from the running JDK's module image, so the benchmarks don't need any downloads
+public class Corpus {
+
+	public static List<byte[]> load(String directory, int limit) throws IOException {
+		FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+		Path root = jrt.getPath("modules", directory);
+
+		List<Path> paths;
+		try(Stream<Path> files = Files.walk(root)) {
+			paths = files
+				.filter(p -> p.toString().endsWith(".class") && !p.getFileName().toString().equals("module-info.class"))
+				.sorted()
+				.limit(limit)
+				.collect(Collectors.toList());
+		}
+
+		if(paths.isEmpty()) throw new IOException("No classes found in jrt:/modules/" + directory);
+
+		List<byte[]> classes = new ArrayList<>();
+		for(Path p : paths) classes.add(Files.readAllBytes(p));
+		return classes;
+	}
+
+	public static ClassFile read(byte[] bytes) {
+		try {
+			return new ClassFile(new ByteArrayInputStream(bytes));
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,89 @@
+package me.mrletsplay.jareditor.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.mrletsplay.jareditor.format.ByteCodeFormatter;
+import me.mrletsplay.jareditor.format.ClassFileFormatter;
+import me.mrletsplay.jareditor.syntax.SyntaxHighlighting;
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+import me.mrletsplay.mrcore.misc.classfile.ClassMethod;
+import me.mrletsplay.mrcore.misc.classfile.attribute.Attribute;
+import me.mrletsplay.mrcore.misc.classfile.attribute.AttributeCode;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatterBenchmark {
+
+	@Param("java.base/java/util")
+	private String corpus;
+
+	@Param("64")
+	private int classCount;
+
+	private ClassFile[] classes;
+	private String[] texts;
+	private ClassFile[] codeClasses;
+	private AttributeCode[] codes;
+
+	@Setup
+	public void setup() throws IOException {
+		List<byte[]> bytes = Corpus.load(corpus, classCount);
+		classes = new ClassFile[bytes.size()];
+		texts = new String[bytes.size()];
+
+		List<ClassFile> codeClasses = new ArrayList<>();
+		List<AttributeCode> codes = new ArrayList<>();
+		for(int i = 0; i < classes.length; i++) {
+			ClassFile cf = Corpus.read(bytes.get(i));
+			classes[i] = cf;
+			texts[i] = ClassFileFormatter.formatClass(cf);
+
+			for(ClassMethod m : cf.getMethods()) {
+				for(Attribute a : m.getAttributes()) {
+					if(!(a instanceof AttributeCode)) continue;
+					codeClasses.add(cf);
+					codes.add((AttributeCode) a);
+				}
+			}
+		}
+
+		this.codeClasses = codeClasses.toArray(ClassFile[]::new);
+		this.codes = codes.toArray(AttributeCode[]::new);
+	}
+
+	@Benchmark
+	public void formatClass(Blackhole bh) {
+		for(ClassFile cf : classes) bh.consume(ClassFileFormatter.formatClass(cf));
+	}
+
+	@Benchmark
+	public void formatByteCode(Blackhole bh) {
+		for(int i = 0; i < codes.length; i++) bh.consume(ByteCodeFormatter.formatByteCode(codeClasses[i], codes[i].getCode(), 0));
+	}
+
+	@Benchmark
+	public void computeHighlighting(Blackhole bh) {
+		for(String text : texts) bh.consume(SyntaxHighlighting.computeHighlighting(text));
+	}
+
+}
@@ -0,0 +1,159 @@
+package me.mrletsplay.jareditor.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import me.mrletsplay.jareditor.format.ByteCodeFormatter;
+import me.mrletsplay.jareditor.format.ByteCodeParser;
+import me.mrletsplay.jareditor.format.ClassFileFormatter;
+import me.mrletsplay.jareditor.format.ClassFileParser;
+import me.mrletsplay.jareditor.format.MemberHashes;
+import me.mrletsplay.jareditor.format.string.FullParseString;
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+import me.mrletsplay.mrcore.misc.classfile.ClassMethod;
+import me.mrletsplay.mrcore.misc.classfile.attribute.Attribute;
+import me.mrletsplay.mrcore.misc.classfile.attribute.AttributeCode;
+import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParserBenchmark {
+
+	private static final int LARGE_POOL_SIZE = 30000;
+
+	@Param("java.base/java/util")
+	private String corpus;
+
+	@Param("64")
+	private int classCount;
+
+	private byte[][] bytes;
+	private ClassFile[] classes;
+	private String[] texts;
+	private MemberHashes[] hashes;
+	private ClassFile[] codeClasses;
+	private String[] codeTexts;
+	private ClassFile largePoolClass;
+	private String[] largePoolTexts;
+
+	@Setup
+	public void setup() throws IOException {
+		// Classes that don't survive a round trip would only time the error path
+		List<byte[]> corpusBytes = new ArrayList<>();
+		for(byte[] b : Corpus.load(corpus, classCount)) {
+			if(roundTrips(b)) corpusBytes.add(b);
+		}
+		if(corpusBytes.isEmpty()) throw new IllegalStateException("No class in '" + corpus + "' can be parsed again after formatting it");
+
+		bytes = corpusBytes.toArray(byte[][]::new);
+		classes = new ClassFile[bytes.length];
+		texts = new String[bytes.length];
+		hashes = new MemberHashes[bytes.length];
+
+		List<ClassFile> codeClasses = new ArrayList<>();
+		List<String> codeTexts = new ArrayList<>();
+		for(int i = 0; i < bytes.length; i++) {
+			ClassFile cf = Corpus.read(bytes[i]);
+			classes[i] = cf;
+			texts[i] = ClassFileFormatter.formatClass(cf);
+			hashes[i] = MemberHashes.of(texts[i]);
+
+			for(ClassMethod m : cf.getMethods()) {
+				for(Attribute a : m.getAttributes()) {
+					if(!(a instanceof AttributeCode)) continue;
+					codeClasses.add(cf);
+					codeTexts.add(ByteCodeFormatter.formatByteCode(cf, ((AttributeCode) a).getCode(), 0));
+				}
+			}
+		}
+
+		this.codeClasses = codeClasses.toArray(ClassFile[]::new);
+		this.codeTexts = codeTexts.toArray(String[]::new);
+
+		// The first class with code, with its constant pool padded to LARGE_POOL_SIZE entries
+		largePoolTexts = new String[0];
+		for(byte[] b : bytes) {
+			ClassFile cf = Corpus.read(b);
+			List<String> texts = new ArrayList<>();
+			for(ClassMethod m : cf.getMethods()) {
+				for(Attribute a : m.getAttributes()) {
+					if(a instanceof AttributeCode) texts.add(ByteCodeFormatter.formatByteCode(cf, ((AttributeCode) a).getCode(), 0));
+				}
+			}
+
+			if(texts.isEmpty()) continue;
+			for(int i = 0; cf.getConstantPool().getEntries().length < LARGE_POOL_SIZE; i++) ClassFileUtils.getOrAppendUTF8(cf, "padding" + i);
+			largePoolClass = cf;
+			largePoolTexts = texts.toArray(String[]::new);
+			break;
+		}
+	}
+
+	@Benchmark
+	public void parse(Blackhole bh) {
+		for(int i = 0; i < classes.length; i++) bh.consume(ClassFileParser.parse(classes[i], texts[i]));
+	}
+
+	// Saving without edits, the unchanged constant pool is kept, so every member is copied from the original class instead of being parsed
+	@Benchmark
+	public void parseUnchanged(Blackhole bh) {
+		for(int i = 0; i < classes.length; i++) bh.consume(ClassFileParser.parse(classes[i], texts[i], hashes[i]));
+	}
+
+	@Benchmark
+	public void parseByteCode(Blackhole bh) {
+		for(int i = 0; i < codeTexts.length; i++) bh.consume(ByteCodeParser.parse(codeClasses[i], new FullParseString(codeTexts[i])));
+	}
+
+	// Every entry the code references is already in the pool, so this measures looking entries up in a large pool
+	@Benchmark
+	public void parseByteCodeLargePool(Blackhole bh) {
+		for(String text : largePoolTexts) bh.consume(ByteCodeParser.parse(largePoolClass, new FullParseString(text)));
+	}
+
+	// Reading, formatting, parsing and writing a class, like opening and saving it in the editor
+	@Benchmark
+	public void roundTrip(Blackhole bh) throws IOException {
+		for(byte[] b : bytes) {
+			ClassFile cf = Corpus.read(b);
+			ClassFile parsed = ClassFileParser.parseInto(cf, ClassFileFormatter.formatClass(cf), null).value();
+			ByteArrayOutputStream bOut = new ByteArrayOutputStream(b.length);
+			parsed.write(bOut);
+			bh.consume(bOut.toByteArray());
+		}
+	}
+
+	private static boolean roundTrips(byte[] b) {
+		ClassFile cf = Corpus.read(b);
+		var parsed = ClassFileParser.parseInto(cf, ClassFileFormatter.formatClass(cf), null);
+		if(parsed.isErr()) return false;
+
+		try {
+			parsed.value().write(new ByteArrayOutputStream(b.length));
+			return true;
+		}catch(IOException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package me.mrletsplay.jareditor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+import me.mrletsplay.jareditor.file.EditorItem;
+
+public class EditorTreeItem extends TreeItem<EditorItem> {
+
+	private boolean childrenLoaded;
+
+	public EditorTreeItem(EditorItem item) {
+		super(item);
+	}
+
+	@Override
+	public boolean isLeaf() {
+		return !getValue().isDirectory();
+	}
+
+	@Override
+	public ObservableList<TreeItem<EditorItem>> getChildren() {
+		if(!childrenLoaded) {
+			childrenLoaded = true;
+			for(EditorItem c : getValue().getChildren()) {
+				super.getChildren().add(new EditorTreeItem(c));
+			}
+		}
+
+		return super.getChildren();
+	}
+
+	// Syncs loaded children with the item after it was refreshed, keeping the tree items (and their expansion state) of unchanged children
+	public void refresh() {
+		if(!childrenLoaded) return;
+
+		ObservableList<TreeItem<EditorItem>> current = super.getChildren();
+		Map<EditorItem, TreeItem<EditorItem>> existing = new IdentityHashMap<>();
+		for(TreeItem<EditorItem> c : current) existing.put(c.getValue(), c);
+
+		List<TreeItem<EditorItem>> updated = new ArrayList<>();
+		for(EditorItem c : getValue().getChildren()) {
+			TreeItem<EditorItem> item = existing.get(c);
+			updated.add(item != null ? item : new EditorTreeItem(c));
+		}
+
+		if(!updated.equals(current)) current.setAll(updated);
+		for(TreeItem<EditorItem> c : current) ((EditorTreeItem) c).refresh();
+	}
+
+}
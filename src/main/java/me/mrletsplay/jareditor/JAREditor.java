@@ -2,6 +2,8 @@ package me.mrletsplay.jareditor;
 
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
@@ -15,6 +17,12 @@ public class JAREditor extends Application {
 
 	public static Stage stage;
 
+	public static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "JAREditor-Worker");
+		t.setDaemon(true);
+		return t;
+	});
+
 	public static OpenedFile openedFile;
 
 	@Override
@@ -34,12 +42,18 @@ public class JAREditor extends Application {
 		primaryStage.show();
 	}
 
-	public static OpenedFile openFile(Path filePath) {
+	public static OpenFileTask openFile(Path filePath) {
+		closeFile();
+		OpenFileTask task = new OpenFileTask(filePath);
+		EXECUTOR.execute(task);
+		return task;
+	}
+
+	public static void closeFile() {
 		if(openedFile != null) {
 			openedFile.close();
+			openedFile = null;
 		}
-
-		return openedFile = new OpenedFile(filePath);
 	}
 
 }
@@ -7,26 +7,40 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
 
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.SplitPane;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.control.TreeItem;
 import javafx.scene.control.TreeView;
 import javafx.stage.FileChooser;
 import javafx.stage.FileChooser.ExtensionFilter;
+import me.mrletsplay.jareditor.file.ArchiveChanges;
+import me.mrletsplay.jareditor.file.ArchiveWatcher;
 import me.mrletsplay.jareditor.file.EditedFile;
 import me.mrletsplay.jareditor.file.EditorItem;
 import me.mrletsplay.jareditor.file.OpenedFile;
 import me.mrletsplay.jareditor.format.ClassFileFormatter;
 import me.mrletsplay.jareditor.format.ClassFileParser;
+import me.mrletsplay.jareditor.format.FormatCache;
+import me.mrletsplay.jareditor.format.FormatIndex;
+import me.mrletsplay.jareditor.format.MemberHashes;
+import me.mrletsplay.jareditor.format.ParseDiagnostics;
+import me.mrletsplay.jareditor.format.ParseError;
 import me.mrletsplay.jareditor.syntax.SyntaxHighlighting;
 import me.mrletsplay.mrcore.misc.classfile.ClassFile;
 
@@ -47,6 +61,34 @@ public class JAREditorController {
 	@FXML
 	private MenuItem saveArchiveAsItem;
 
+	@FXML
+	private CheckMenuItem watchArchiveItem;
+
+	@FXML
+	private CheckMenuItem foldCodeItem;
+
+	@FXML
+	private Label labelStatus;
+
+	@FXML
+	private ProgressBar progressStatus;
+
+	@FXML
+	private Button buttonCancel;
+
+	private OpenFileTask openTask;
+
+	private ArchiveWatcher watcher;
+
+	private byte[] foldedContents; // The original contents foldedClass was read from
+	private ClassFile foldedClass;
+
+	private EditedFile shownFile; // The file whose contents are in the editor, null while they are being replaced
+
+	private boolean hasFolded; // Whether the shown file contained fold markers when it was shown
+	private boolean expandQueued;
+	private int expandedFrom = -1, expandedTo = -1, expandedCaret = -1; // Paragraphs folded sections were last expanded in
+
 	public void init() {
 		areaEdit = new CodeArea();
 		paneEdit.getItems().add(new VirtualizedScrollPane<>(areaEdit));
@@ -63,38 +105,160 @@ public class JAREditorController {
 			edit.setEditorContents(newValue);
 		});
 
+		areaEdit.plainTextChanges().subscribe(c -> {
+			if(shownFile == null || shownFile.getFormatIndex() == null) return;
+			shownFile.getFormatIndex().update(c.getPosition(), c.getRemoved().length(), c.getInserted());
+		});
+
+		// Folded sections are expanded once the caret enters them or they are scrolled into view
+		areaEdit.caretPositionProperty().addListener((obs, oldValue, newValue) -> queueExpandFolded());
+		areaEdit.estimatedScrollYProperty().addListener((obs, oldValue, newValue) -> queueExpandFolded());
+
 
 		treeFiles.getSelectionModel().selectedItemProperty().addListener(v -> {
 			TreeItem<EditorItem> it = treeFiles.getSelectionModel().getSelectedItem();
-			if(it == null) return;
+			if(it == null || it.getValue().getOpenedFile() == null) return; // Entries listed while the file is still opening
+			showItem(it.getValue());
+		});
+	}
 
-			Path p = it.getValue().getPath();
-			if(p == null || Files.isDirectory(p)) {
-				areaEdit.replaceText("Select a file to edit");
-				return;
-			}
+	private void showItem(EditorItem item) {
+		shownFile = null;
+		hasFolded = false;
+		if(item.isDirectory()) {
+			areaEdit.replaceText("Select a file to edit");
+			return;
+		}
 
-			EditedFile edit = it.getValue().open();
-			if(edit.getEditorContents() == null) {
-				if(p.getFileName().toString().endsWith(".class")) {
-					try {
-						ClassFile cf = new ClassFile(new ByteArrayInputStream(edit.getOriginalContents()));
-						edit.setEditorContents(ClassFileFormatter.formatClass(cf));
-					}catch(Exception e) {
-						e.printStackTrace();
-						areaEdit.replaceText("Failed to load class: " + e.toString());
+		EditedFile edit = item.open();
+		if(edit.getEditorContents() == null) {
+			if(item.getFileName().endsWith(".class")) {
+				try {
+					StringBuilder text = new StringBuilder();
+					FormatIndex index;
+					if(foldCodeItem.isSelected()) {
+						FormatIndex.Builder builder = new FormatIndex.Builder(text);
+						ClassFileFormatter.formatClass(new ClassFile(new ByteArrayInputStream(edit.getOriginalContents())), builder, true);
+						index = builder.build();
+					}else {
+						index = FormatCache.getDefault().formatClass(edit.getOriginalContents(), text);
 					}
-				}else {
-					edit.setEditorContents(new String(edit.getOriginalContents(), StandardCharsets.UTF_8));
+					edit.setEditorContents(text.toString());
+					edit.setFormatIndex(index);
+					edit.setMemberHashes(MemberHashes.of(edit.getEditorContents()));
+				}catch(Exception e) {
+					e.printStackTrace();
+					areaEdit.replaceText("Failed to load class: " + e.toString());
 				}
+			}else {
+				edit.setEditorContents(new String(edit.getOriginalContents(), StandardCharsets.UTF_8));
 			}
+		}
+
+		areaEdit.replaceText(edit.getEditorContents());
+		areaEdit.moveTo(0);
+		areaEdit.requestFollowCaret();
+		shownFile = edit;
 
-			areaEdit.replaceText(edit.getEditorContents());
-			areaEdit.moveTo(0);
-			areaEdit.requestFollowCaret();
+		hasFolded = edit.getEditorContents() != null && edit.getEditorContents().contains(ClassFileFormatter.FOLDED_PREFIX);
+		expandedFrom = expandedTo = expandedCaret = -1;
+		queueExpandFolded();
+	}
+
+	// Caret moves and scrolling fire many events per frame, so at most one expansion is queued and it only runs once the visible paragraphs or the caret paragraph changed
+	private void queueExpandFolded() {
+		if(!hasFolded || expandQueued) return;
+		expandQueued = true;
+
+		Platform.runLater(() -> {
+			expandQueued = false;
+			if(!hasFolded) return;
+
+			int from = areaEdit.firstVisibleParToAllParIndex();
+			int to = areaEdit.lastVisibleParToAllParIndex();
+			int caret = areaEdit.getCurrentParagraph();
+			if(from == expandedFrom && to == expandedTo && caret == expandedCaret) return;
+			expandedFrom = from;
+			expandedTo = to;
+			expandedCaret = caret;
+
+			// Bottom to top, like the paragraphs within expandFolded
+			if(caret > to) expandFolded(caret, caret);
+			expandFolded(from, to);
+			if(caret < from) expandFolded(caret, caret);
 		});
 	}
 
+	private void expandFolded(int fromParagraph, int toParagraph) {
+		TreeItem<EditorItem> it = treeFiles.getSelectionModel().getSelectedItem();
+		if(it == null) return;
+
+		EditedFile edit = it.getValue().getFile();
+		if(edit == null || !it.getValue().getFileName().endsWith(".class")) return;
+
+		String text = null;
+
+		// Bottom to top, so the positions of the remaining paragraphs stay valid
+		for(int i = Math.min(toParagraph, areaEdit.getParagraphs().size() - 1); i >= Math.max(fromParagraph, 0); i--) {
+			String line = areaEdit.getParagraph(i).getText();
+			if(!line.contains(ClassFileFormatter.FOLDED_PREFIX)) continue;
+
+			if(foldedContents != edit.getOriginalContents()) {
+				try {
+					foldedClass = new ClassFile(new ByteArrayInputStream(edit.getOriginalContents()));
+					foldedContents = edit.getOriginalContents();
+				}catch(IOException e) {
+					showError(e);
+					return;
+				}
+			}
+
+			String expanded = ClassFileFormatter.expandFolded(foldedClass, line);
+			if(expanded == null) continue;
+
+			if(text == null) text = areaEdit.getText();
+			int start = areaEdit.getAbsolutePosition(i, 0);
+			text = text.substring(0, start) + expanded + text.substring(start + line.length());
+			edit.replaceEditorContents(text);
+			areaEdit.replaceText(start, start + line.length(), expanded);
+		}
+	}
+
+	@FXML
+	void toggleFold(ActionEvent event) {
+		TreeItem<EditorItem> it = treeFiles.getSelectionModel().getSelectedItem();
+		if(it == null || foldCodeItem.isSelected()) return;
+
+		// Turning folding off expands everything in the current file
+		expandFolded(0, areaEdit.getParagraphs().size() - 1);
+		hasFolded = false;
+	}
+
+	@FXML
+	void goToMember(ActionEvent event) {
+		EditedFile edit = shownFile;
+		if(edit == null || edit.getFormatIndex() == null) return;
+
+		TextInputDialog dialog = new TextInputDialog();
+		dialog.setTitle("Go to member");
+		dialog.setHeaderText("Go to member");
+		dialog.setContentText("Enter the name of a field or method");
+
+		String name = dialog.showAndWait().orElse(null);
+		if(name == null || edit != shownFile) return;
+
+		FormatIndex index = edit.getFormatIndex();
+		int member = index.findMember(FormatIndex.METHOD, name);
+		if(member == -1) member = index.findMember(FormatIndex.FIELD, name);
+		if(member == -1) {
+			setStatus("No field or method named " + name);
+			return;
+		}
+
+		areaEdit.moveTo(index.getStart(member));
+		areaEdit.requestFollowCaret();
+	}
+
 	@FXML
 	void newFile(ActionEvent event) {
 		OpenedFile opened = JAREditor.openedFile;
@@ -108,7 +272,6 @@ public class JAREditorController {
 		String filePath = dialog.showAndWait().orElse(null);
 		if(filePath == null) return;
 
-		Path path = opened.getFileSystem().getPath(filePath);
 		// TODO: Create file, update tree
 	}
 
@@ -120,16 +283,156 @@ public class JAREditorController {
 		if(f == null) return;
 		Path jarFile = f.toPath();
 
-		OpenedFile opened = JAREditor.openFile(jarFile);
-		saveArchiveItem.setDisable(!opened.isArchive());
-		saveArchiveAsItem.setDisable(!opened.isArchive());
+		if(openTask != null) openTask.cancel();
+		stopWatching();
+		treeFiles.setRoot(null);
+		areaEdit.replaceText("");
+		saveArchiveItem.setDisable(true);
+		saveArchiveAsItem.setDisable(true);
+
+		OpenFileTask task = JAREditor.openFile(jarFile);
+		openTask = task;
+		task.setOnEntriesFound(items -> {
+			if(openTask != task) return;
+
+			TreeItem<EditorItem> root = treeFiles.getRoot();
+			if(root == null) {
+				String name = jarFile.getFileName().toString();
+				root = new TreeItem<>(new EditorItem(null, null, "", name, true));
+				root.setExpanded(true);
+				treeFiles.setRoot(root);
+			}
 
-		TreeItem<EditorItem> root = new TreeItem<>(opened.getRoot());
-		root.setExpanded(true);
-		treeFiles.setRoot(root);
-		add(root);
+			for(EditorItem item : items) {
+				root.getChildren().add(new TreeItem<>(item));
+			}
+		});
+		task.setOnOpened(opened -> {
+			JAREditor.openedFile = opened;
+			saveArchiveItem.setDisable(!opened.isArchive());
+			saveArchiveAsItem.setDisable(!opened.isArchive());
+
+			TreeItem<EditorItem> root = new EditorTreeItem(opened.getRoot());
+			root.setExpanded(true);
+			treeFiles.setRoot(root);
+			startWatching(opened);
+		});
+		task.setOnSucceeded(e -> finishOpen(task));
+		task.setOnFailed(e -> {
+			finishOpen(task);
+			task.getException().printStackTrace();
+			Alert a = new Alert(AlertType.ERROR);
+			a.setContentText("Failed to open file: " + task.getException().toString());
+			a.show();
+		});
+		task.setOnCancelled(e -> {
+			finishOpen(task);
+			if(openTask != null) return; // Another file is already being opened
+
+			stopWatching();
+			JAREditor.closeFile();
+			treeFiles.setRoot(null);
+			labelStatus.setText("Cancelled opening " + task.getFilePath().getFileName());
+		});
 
-		areaEdit.replaceText("");
+		labelStatus.textProperty().bind(task.messageProperty());
+		progressStatus.progressProperty().bind(task.progressProperty());
+		progressStatus.setVisible(true);
+		buttonCancel.setVisible(true);
+	}
+
+	private void finishOpen(OpenFileTask task) {
+		if(openTask != task) return;
+		openTask = null;
+		labelStatus.textProperty().unbind();
+		progressStatus.progressProperty().unbind();
+		progressStatus.setVisible(false);
+		buttonCancel.setVisible(false);
+	}
+
+	@FXML
+	void cancelOpen(ActionEvent event) {
+		if(openTask != null) openTask.cancel();
+	}
+
+	@FXML
+	void toggleWatch(ActionEvent event) {
+		OpenedFile opened = JAREditor.openedFile;
+		if(opened == null) return;
+		startWatching(opened);
+	}
+
+	private void startWatching(OpenedFile opened) {
+		stopWatching();
+		if(!opened.isArchive() || !watchArchiveItem.isSelected()) return;
+
+		try {
+			watcher = new ArchiveWatcher(opened.getFilePath(), () -> Platform.runLater(() -> reloadArchive(opened)));
+		}catch(IOException e) {
+			showError(e);
+		}
+	}
+
+	private void stopWatching() {
+		if(watcher == null) return;
+
+		try {
+			watcher.close();
+		}catch(IOException e) {
+			e.printStackTrace();
+		}
+		watcher = null;
+	}
+
+	private void reloadArchive(OpenedFile opened) {
+		if(opened != JAREditor.openedFile) return;
+
+		// Reading and comparing the central directory can take a while for large archives
+		JAREditor.EXECUTOR.execute(() -> {
+			try {
+				ArchiveChanges changes = opened.checkChanges();
+				Platform.runLater(() -> applyChanges(opened, changes));
+			}catch(IOException e) {
+				e.printStackTrace();
+				Platform.runLater(() -> setStatus("Failed to reload " + opened.getFilePath().getFileName() + ": " + e.getMessage()));
+			}
+		});
+	}
+
+	private void applyChanges(OpenedFile opened, ArchiveChanges changes) {
+		try {
+			if(opened != JAREditor.openedFile) {
+				changes.discard();
+				return;
+			}
+
+			if(!opened.applyChanges(changes)) {
+				reloadArchive(opened); // Saved or reloaded in the meantime, compare against the new state
+				return;
+			}
+		}catch(IOException e) {
+			e.printStackTrace();
+			setStatus("Failed to reload " + opened.getFilePath().getFileName() + ": " + e.getMessage());
+			return;
+		}
+
+		if(changes.isEmpty()) return;
+
+		((EditorTreeItem) treeFiles.getRoot()).refresh();
+		treeFiles.refresh();
+
+		TreeItem<EditorItem> it = treeFiles.getSelectionModel().getSelectedItem();
+		if(it != null && !it.getValue().isDirectory() && it.getValue().getFile() == null) showItem(it.getValue());
+
+		int count = changes.getChangedEntries().size();
+		String message = String.format("Reloaded %s (%d changed %s)", opened.getFilePath().getFileName(), count, count == 1 ? "entry" : "entries");
+		if(!changes.getConflicts().isEmpty()) message += ", " + changes.getConflicts().size() + " with unsaved changes were also changed on disk";
+		setStatus(message);
+	}
+
+	private void setStatus(String message) {
+		if(labelStatus.textProperty().isBound()) return; // A file is still being opened
+		labelStatus.setText(message);
 	}
 
 	@FXML
@@ -141,7 +444,23 @@ public class JAREditorController {
 		EditedFile edit = item.getFile();
 		if(edit == null) return;
 
-		saveItem(edit, item.getPath());
+		byte[] contents = compile(edit);
+		if(contents == null) return;
+
+		OpenedFile opened = item.getOpenedFile();
+		if(opened.isArchive()) {
+			opened.markDirty(edit, contents);
+			treeFiles.refresh();
+			return;
+		}
+
+		try {
+			opened.saveFile(edit, contents);
+		}catch(IOException e) {
+			showError(e);
+			return;
+		}
+		treeFiles.refresh();
 	}
 
 	@FXML
@@ -160,48 +479,95 @@ public class JAREditorController {
 		if(f == null) return;
 		Path savePath = f.toPath();
 
-		saveItem(edit, savePath);
+		byte[] contents = compile(edit);
+		if(contents == null) return;
+		writeFile(savePath, contents);
 	}
 
-	private void saveItem(EditedFile edit, Path savePath) {
+	private byte[] compile(EditedFile edit) {
 		EditorItem item = edit.getItem();
 
 		try {
 			String code = areaEdit.getText();
-			if(item.getPath().getFileName().toString().endsWith(".class")) {
-				var p = ClassFileParser.parse(new ClassFile(new ByteArrayInputStream(edit.getOriginalContents())), code);
+			if(item.getFileName().endsWith(".class")) {
+				// The index follows the edits, so it describes the text that is parsed
+				FormatIndex index = edit.getFormatIndex() != null && edit.getFormatIndex().getLength() == code.length() ? edit.getFormatIndex() : null;
+				ParseDiagnostics diagnostics = index != null ? new ParseDiagnostics(index) : new ParseDiagnostics(code);
+				var p = ClassFileParser.parseInto(new ClassFile(new ByteArrayInputStream(edit.getOriginalContents())), code, edit.getMemberHashes(), diagnostics);
 				if(p.isErr()) {
+					// The underlines are removed by the highlighting of the next edit
+					List<ParseError> errors = diagnostics.getErrors();
+					areaEdit.setStyleSpans(0, SyntaxHighlighting.computeHighlighting(code, errors));
+
 					Alert a = new Alert(AlertType.ERROR);
-					System.out.println(code.substring(p.getErr().getIndex()));
-					a.setContentText(p.getErr().toString());
+					a.setHeaderText(errors.size() == 1 ? "1 error" : errors.size() + " errors");
+					a.setContentText(errors.stream()
+						.map(e -> diagnostics.formatPosition(e.getIndex()) + (index != null ? " (" + index.describe(e.getIndex()) + ")" : "") + ": " + e.getDescription())
+						.collect(Collectors.joining("\n")));
 					a.show();
-					p.getErr().printStackTrace();
-					return;
+					return null;
 				}
 				ClassFile cf = p.value();
 				ByteArrayOutputStream bOut = new ByteArrayOutputStream();
 				cf.write(bOut);
-				Files.write(savePath, bOut.toByteArray());
+				return bOut.toByteArray();
 			}else {
-				Files.writeString(savePath, code, StandardCharsets.UTF_8);
+				return code.getBytes(StandardCharsets.UTF_8);
 			}
-			JAREditor.openedFile.flush();
 		} catch (IOException e) {
-			e.printStackTrace();
-			Alert a = new Alert(AlertType.ERROR);
-			a.setContentText(e.toString());
-			a.show();
+			showError(e);
+			return null;
+		}
+	}
+
+	private void writeFile(Path path, byte[] contents) {
+		try {
+			Files.write(path, contents);
+		} catch (IOException e) {
+			showError(e);
 		}
 	}
 
+	private void showError(Exception e) {
+		e.printStackTrace();
+		Alert a = new Alert(AlertType.ERROR);
+		a.setContentText(e.toString());
+		a.show();
+	}
+
 	@FXML
 	void saveArchive(ActionEvent event) {
+		OpenedFile opened = JAREditor.openedFile;
+		if(opened == null || !opened.isArchive()) return;
 
+		saveArchive(opened, opened.getFilePath());
 	}
 
 	@FXML
 	void saveArchiveAs(ActionEvent event) {
+		OpenedFile opened = JAREditor.openedFile;
+		if(opened == null || !opened.isArchive()) return;
+
+		FileChooser ch = new FileChooser();
+		ch.getExtensionFilters().add(new ExtensionFilter("Java archives", "*.jar", "*.war", "*.zip"));
+		ch.setInitialFileName(opened.getFilePath().getFileName().toString());
+		File f = ch.showSaveDialog(JAREditor.stage);
+		if(f == null) return;
 
+		saveArchive(opened, f.toPath());
+	}
+
+	private void saveArchive(OpenedFile opened, Path target) {
+		try {
+			long start = System.nanoTime();
+			int count = opened.getDirtyFiles().size();
+			opened.saveArchive(target);
+			treeFiles.refresh();
+			if(watcher != null && !watcher.getFilePath().equals(target.toAbsolutePath())) startWatching(opened);
+			setStatus(String.format("Saved %s (%d modified %s) in %,d ms", target.getFileName(), count, count == 1 ? "entry" : "entries", (System.nanoTime() - start) / 1_000_000));
+		} catch (IOException e) {
+			showError(e);
+		}
 	}
 
 	@FXML
@@ -214,12 +580,4 @@ public class JAREditorController {
 
 	}
 
-	public void add(TreeItem<EditorItem> item) {
-		for(EditorItem c : item.getValue().getChildren()) {
-			TreeItem<EditorItem> child = new TreeItem<>(c);
-			item.getChildren().add(child);
-			add(child);
-		}
-	}
-
 }
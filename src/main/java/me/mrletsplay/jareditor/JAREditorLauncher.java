@@ -1,10 +1,27 @@
 package me.mrletsplay.jareditor;
 
+import java.util.Arrays;
+
 import javafx.application.Application;
+import me.mrletsplay.jareditor.cli.AssembleCommand;
+import me.mrletsplay.jareditor.cli.DisassembleCommand;
+import me.mrletsplay.jareditor.cli.RoundTripCommand;
 
 public class JAREditorLauncher {
 
 	public static void main(String[] args) {
+		if(args.length > 0 && args[0].equals("disassemble")) {
+			System.exit(DisassembleCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+
+		if(args.length > 0 && args[0].equals("assemble")) {
+			System.exit(AssembleCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+
+		if(args.length > 0 && args[0].equals("roundtrip")) {
+			System.exit(RoundTripCommand.run(Arrays.copyOfRange(args, 1, args.length)));
+		}
+
 		Application.launch(JAREditor.class, args);
 	}
 
@@ -0,0 +1,134 @@
+package me.mrletsplay.jareditor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import me.mrletsplay.jareditor.file.EditorItem;
+import me.mrletsplay.jareditor.file.OpenedFile;
+import me.mrletsplay.jareditor.zip.ZipIndex;
+
+public class OpenFileTask extends Task<OpenedFile> {
+
+	private static final long UPDATE_INTERVAL = 100_000_000; // Nanoseconds between progress updates while reading the central directory
+
+	private Path filePath;
+	private Consumer<OpenedFile> onOpened;
+	private Consumer<List<EditorItem>> onEntriesFound;
+
+	public OpenFileTask(Path filePath) {
+		this.filePath = filePath;
+	}
+
+	// Called on the application thread as soon as the top level of the file is listed
+	public void setOnOpened(Consumer<OpenedFile> onOpened) {
+		this.onOpened = onOpened;
+	}
+
+	// Called on the application thread with top-level entries as they are found in the central directory, before the file is opened. The items can't be opened themselves
+	public void setOnEntriesFound(Consumer<List<EditorItem>> onEntriesFound) {
+		this.onEntriesFound = onEntriesFound;
+	}
+
+	public Path getFilePath() {
+		return filePath;
+	}
+
+	@Override
+	protected OpenedFile call() throws Exception {
+		updateMessage("Opening " + filePath.getFileName() + "...");
+		updateProgress(-1, 1);
+
+		long start = System.nanoTime();
+		ZipIndex index = null;
+		if(OpenedFile.isArchive(filePath)) {
+			index = readIndex(start);
+			if(index == null) return null;
+
+			// The backend opens the archive itself, which can't be cancelled
+			updateMessage("Opening " + filePath.getFileName() + "...");
+			updateProgress(-1, 1);
+		}
+
+		OpenedFile opened = new OpenedFile(filePath, index);
+		if(isCancelled()) {
+			opened.close();
+			return null;
+		}
+
+		// Only the top level is listed here, the tree items list the rest when they're expanded
+		opened.getRoot().getChildren();
+		if(isCancelled()) {
+			opened.close();
+			return null;
+		}
+
+		Platform.runLater(() -> {
+			if(isCancelled()) {
+				opened.close();
+				return;
+			}
+
+			if(onOpened != null) onOpened.accept(opened);
+		});
+
+		// Nothing reads the file in the background after it has been published, so it can't race with a reload or close
+		if(index != null) {
+			updateMessage(String.format("Opened %s (%,d entries, %,.0f entries/s)", filePath.getFileName(), index.size(), rate(index.size(), System.nanoTime() - start)));
+		}else {
+			updateMessage("Opened " + filePath.getFileName());
+		}
+		updateProgress(1, 1);
+		return opened;
+	}
+
+	// Returns null if the task was cancelled while reading
+	private ZipIndex readIndex(long start) throws IOException {
+		Set<String> topLevel = new HashSet<>();
+		List<EditorItem> found = new ArrayList<>();
+		long[] lastUpdate = {start};
+
+		try(FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+			return ZipIndex.read(channel, (index, entry, count) -> {
+				if(isCancelled()) throw new InterruptedIOException("Cancelled");
+
+				String name = index.getName(entry);
+				int slash = name.indexOf('/');
+				String top = slash == -1 ? name : name.substring(0, slash);
+				if(!top.isEmpty() && topLevel.add(top)) found.add(new EditorItem(null, null, top, top, slash != -1));
+
+				long now = System.nanoTime();
+				if(now - lastUpdate[0] < UPDATE_INTERVAL && entry + 1 < count) return;
+				lastUpdate[0] = now;
+
+				updateProgress(entry + 1, count);
+				updateMessage(String.format("Reading %s: %,d of %,d entries (%,.0f entries/s)", filePath.getFileName(), entry + 1, count, rate(entry + 1, now - start)));
+
+				if(found.isEmpty()) return;
+				List<EditorItem> batch = new ArrayList<>(found);
+				found.clear();
+				Platform.runLater(() -> {
+					if(!isCancelled() && onEntriesFound != null) onEntriesFound.accept(batch);
+				});
+			});
+		}catch(InterruptedIOException | ClosedByInterruptException e) {
+			if(isCancelled()) return null;
+			throw e;
+		}
+	}
+
+	private static double rate(int entries, long nanos) {
+		return entries * 1_000_000_000d / Math.max(nanos, 1);
+	}
+
+}
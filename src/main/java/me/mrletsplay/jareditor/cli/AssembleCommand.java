@@ -0,0 +1,163 @@
+package me.mrletsplay.jareditor.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import me.mrletsplay.jareditor.format.ClassFileParser;
+import me.mrletsplay.jareditor.format.ParseDiagnostics;
+import me.mrletsplay.jareditor.format.ParseError;
+import me.mrletsplay.jareditor.zip.MappedZipFile;
+import me.mrletsplay.jareditor.zip.ZipArchiveWriter;
+import me.mrletsplay.jareditor.zip.ZipIndex;
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+import me.mrletsplay.mrcore.misc.Result;
+
+public class AssembleCommand {
+
+	private static final int WINDOW_PER_THREAD = 4;
+
+	// Placeholder for entries without a text file, which are copied as they are. ArrayDeque doesn't allow null elements
+	private static final CompletableFuture<byte[]> PASS_THROUGH = CompletableFuture.completedFuture(null);
+
+	private MappedZipFile zipFile;
+	private Path textDirectory;
+	private List<String> failures;
+	private AtomicBoolean failed; // Checked by the writing thread while classes are still being assembled
+
+	private AssembleCommand(MappedZipFile zipFile, Path textDirectory) {
+		this.zipFile = zipFile;
+		this.textDirectory = textDirectory.toAbsolutePath().normalize();
+		this.failures = new ArrayList<>();
+		this.failed = new AtomicBoolean();
+	}
+
+	public static int run(String[] args) {
+		if(args.length < 3) {
+			System.err.println("Usage: assemble <original archive> <text directory> <output archive> [--threads <n>]");
+			return 2;
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		if(args.length >= 5 && args[3].equals("--threads")) threads = Integer.parseInt(args[4]);
+
+		Path archive = Paths.get(args[0]);
+		Path output = Paths.get(args[2]);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try(MappedZipFile zipFile = MappedZipFile.open(archive);
+			FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+			AssembleCommand cmd = new AssembleCommand(zipFile, Paths.get(args[1]));
+
+			long start = System.nanoTime();
+			int assembled;
+			try(FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				assembled = cmd.assemble(in, new ZipArchiveWriter(out), pool, threads * WINDOW_PER_THREAD);
+			}
+			long nanos = Math.max(System.nanoTime() - start, 1);
+
+			if(cmd.failed.get()) {
+				Files.deleteIfExists(output);
+				cmd.failures.sort(null);
+				System.err.println(cmd.failures.size() + " classes failed to assemble:");
+				cmd.failures.forEach(System.err::println);
+				return 1;
+			}
+
+			System.out.println(String.format("Assembled %,d classes in %,d ms on %d threads: %,.0f classes/s",
+				assembled, nanos / 1_000_000, threads, assembled / (nanos / 1_000_000_000d)));
+			return 0;
+		}catch(IOException e) {
+			System.err.println("Failed to assemble archive: " + e);
+			return 1;
+		}finally {
+			pool.shutdown();
+		}
+	}
+
+	private int assemble(FileChannel in, ZipArchiveWriter writer, ForkJoinPool pool, int window) throws IOException {
+		ZipIndex index = zipFile.getIndex();
+		Deque<Integer> pendingEntries = new ArrayDeque<>();
+		Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+		int assembled = 0;
+		for(int i = 0; i < index.size() || !pending.isEmpty(); ) {
+			// Keep a bounded number of classes in flight, but write them out in archive order
+			if(i < index.size() && pending.size() < window) {
+				Path text = findText(index, i);
+				int entry = i++;
+				pendingEntries.add(entry);
+				pending.add(text == null ? PASS_THROUGH : CompletableFuture.supplyAsync(() -> assembleClass(entry, text), pool));
+				continue;
+			}
+
+			int entry = pendingEntries.poll();
+			CompletableFuture<byte[]> future = pending.poll();
+			if(future == PASS_THROUGH) {
+				if(!failed.get()) writer.copyRaw(in, index, entry);
+				continue;
+			}
+
+			byte[] bytes = future.join();
+			if(bytes == null || failed.get()) continue;
+			writer.writeEntry(index.getName(entry), bytes, index.getMethod(entry), index.getDosTime(entry));
+			assembled++;
+		}
+
+		if(!failed.get()) writer.finish();
+		return assembled;
+	}
+
+	private Path findText(ZipIndex index, int entry) {
+		if(index.isDirectory(entry)) return null;
+		String name = index.getName(entry);
+		if(!name.endsWith(".class")) return null;
+
+		Path text = textDirectory.resolve(name + ".txt").normalize();
+		if(!text.startsWith(textDirectory) || !Files.isRegularFile(text)) return null;
+		return text;
+	}
+
+	private byte[] assembleClass(int entry, Path textFile) {
+		String name = zipFile.getIndex().getName(entry);
+		try {
+			String text = new String(Files.readAllBytes(textFile), StandardCharsets.UTF_8);
+			ClassFile original = new ClassFile(new ByteArrayInputStream(zipFile.read(entry)));
+			ParseDiagnostics diagnostics = new ParseDiagnostics(text);
+			Result<ClassFile, ParseError> cf = ClassFileParser.parseInto(original, text, null, diagnostics);
+			if(cf.isErr()) {
+				Path relative = textDirectory.relativize(textFile);
+				fail(diagnostics.getErrors().stream()
+					.map(e -> relative + ":" + diagnostics.formatPosition(e.getIndex()) + ": " + e.getDescription())
+					.collect(Collectors.joining("\n")));
+				return null;
+			}
+
+			ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+			cf.value().write(bOut);
+			return bOut.toByteArray();
+		}catch(Exception e) {
+			fail(name + ": " + e);
+			return null;
+		}
+	}
+
+	private synchronized void fail(String message) {
+		failures.add(message);
+		failed.set(true);
+	}
+
+}
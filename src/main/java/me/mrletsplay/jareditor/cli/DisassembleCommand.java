@@ -0,0 +1,135 @@
+package me.mrletsplay.jareditor.cli;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.mrletsplay.jareditor.format.ClassFileDisassembler;
+import me.mrletsplay.jareditor.zip.MappedZipFile;
+import me.mrletsplay.jareditor.zip.ZipIndex;
+
+public class DisassembleCommand {
+
+	private static final int
+		BATCH_SIZE = 16,
+		WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private MappedZipFile zipFile;
+	private Path outputDirectory;
+	private int[] entries;
+	private AtomicLong bytesRead;
+	private Queue<String> failures;
+
+	private DisassembleCommand(MappedZipFile zipFile, Path outputDirectory) {
+		this.zipFile = zipFile;
+		this.outputDirectory = outputDirectory.toAbsolutePath().normalize();
+		this.bytesRead = new AtomicLong();
+		this.failures = new ConcurrentLinkedQueue<>();
+
+		ZipIndex index = zipFile.getIndex();
+		List<Integer> classes = new ArrayList<>();
+		for(int i = 0; i < index.size(); i++) {
+			if(!index.isDirectory(i) && index.getName(i).endsWith(".class")) classes.add(i);
+		}
+
+		this.entries = classes.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	public static int run(String[] args) {
+		if(args.length < 2) {
+			System.err.println("Usage: disassemble <archive> <output directory> [--threads <n>]");
+			return 2;
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		if(args.length >= 4 && args[2].equals("--threads")) threads = Integer.parseInt(args[3]);
+
+		try(MappedZipFile zipFile = MappedZipFile.open(Paths.get(args[0]))) {
+			DisassembleCommand cmd = new DisassembleCommand(zipFile, Paths.get(args[1]));
+
+			long start = System.nanoTime();
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(cmd.new DisassembleTask(0, cmd.entries.length));
+			}finally {
+				pool.shutdown();
+			}
+			long nanos = Math.max(System.nanoTime() - start, 1);
+
+			double seconds = nanos / 1_000_000_000d;
+			double megabytes = cmd.bytesRead.get() / (1024d * 1024d);
+			int done = cmd.entries.length - cmd.failures.size();
+			System.out.println(String.format("Disassembled %,d classes (%,.1f MB) in %,d ms on %d threads: %,.0f classes/s, %,.1f MB/s",
+				done, megabytes, nanos / 1_000_000, threads, done / seconds, megabytes / seconds));
+
+			if(!cmd.failures.isEmpty()) {
+				System.err.println(cmd.failures.size() + " classes failed:");
+				cmd.failures.forEach(System.err::println);
+				return 1;
+			}
+
+			return 0;
+		}catch(IOException e) {
+			System.err.println("Failed to read archive: " + e);
+			return 1;
+		}
+	}
+
+	private void disassemble(int entry) {
+		String name = zipFile.getIndex().getName(entry);
+		try {
+			byte[] bytes = zipFile.read(entry);
+			bytesRead.addAndGet(bytes.length);
+
+			Path out = outputDirectory.resolve(name + ".txt").normalize();
+			if(!out.startsWith(outputDirectory)) throw new IOException("Entry is outside of the output directory");
+			Files.createDirectories(out.getParent());
+			try(FileChannel channel = FileChannel.open(out, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), WRITE_BUFFER_SIZE)) {
+				ClassFileDisassembler.disassemble(ByteBuffer.wrap(bytes), writer);
+			}
+		}catch(Exception e) {
+			failures.add(name + ": " + e);
+		}
+	}
+
+	private class DisassembleTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 3478157239566395621L;
+
+		private int from, to;
+
+		public DisassembleTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= BATCH_SIZE) {
+				for(int i = from; i < to; i++) disassemble(entries[i]);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new DisassembleTask(from, mid), new DisassembleTask(mid, to));
+		}
+
+	}
+
+}
@@ -0,0 +1,248 @@
+package me.mrletsplay.jareditor.cli;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import me.mrletsplay.jareditor.format.ClassFileDisassembler;
+import me.mrletsplay.jareditor.format.ClassFileFormatter;
+import me.mrletsplay.jareditor.format.ClassFileParser;
+import me.mrletsplay.jareditor.format.FormatIndex;
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+
+// Formats, parses and writes every class of the running JDK and checks that nothing is lost on the way
+public class RoundTripCommand {
+
+	private static final int BATCH_SIZE = 16;
+
+	private Path[] classes;
+	private AtomicInteger identical, equivalent, failed, mismatched;
+	private AtomicLong bytesRead;
+	private Map<String, Failure> failures;
+
+	private RoundTripCommand(Path[] classes) {
+		this.classes = classes;
+		this.identical = new AtomicInteger();
+		this.equivalent = new AtomicInteger();
+		this.failed = new AtomicInteger();
+		this.mismatched = new AtomicInteger();
+		this.bytesRead = new AtomicLong();
+		this.failures = new ConcurrentHashMap<>();
+	}
+
+	public static int run(String[] args) {
+		String module = "";
+		int threads = Runtime.getRuntime().availableProcessors();
+		long limit = Long.MAX_VALUE;
+		for(int i = 0; i < args.length; i++) {
+			switch(args[i]) {
+				case "--threads":
+					if(++i == args.length) return usage();
+					threads = Integer.parseInt(args[i]);
+					break;
+				case "--limit":
+					if(++i == args.length) return usage();
+					limit = Long.parseLong(args[i]);
+					break;
+				default:
+					if(args[i].startsWith("--") || !module.isEmpty()) return usage();
+					module = args[i];
+					break;
+			}
+		}
+
+		Path[] classes;
+		try {
+			FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+			try(Stream<Path> files = Files.walk(jrt.getPath("/modules", module))) {
+				classes = files
+					.filter(p -> p.toString().endsWith(".class") && !p.getFileName().toString().equals("module-info.class"))
+					.sorted()
+					.limit(limit)
+					.toArray(Path[]::new);
+			}
+		}catch(IOException e) {
+			System.err.println("Failed to list classes: " + e);
+			return 1;
+		}
+
+		RoundTripCommand cmd = new RoundTripCommand(classes);
+		long start = System.nanoTime();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(cmd.new RoundTripTask(0, classes.length));
+		}finally {
+			pool.shutdown();
+		}
+		long nanos = Math.max(System.nanoTime() - start, 1);
+
+		double seconds = nanos / 1_000_000_000d;
+		System.out.println(String.format("Round-tripped %,d classes (%,.1f MB) in %,d ms on %d threads: %,.0f classes/s",
+			classes.length, cmd.bytesRead.get() / (1024d * 1024d), nanos / 1_000_000, threads, classes.length / seconds));
+		System.out.println(String.format("%,d identical, %,d equivalent, %,d failed, %,d disassembled differently by ClassFileDisassembler",
+			cmd.identical.get(), cmd.equivalent.get(), cmd.failed.get(), cmd.mismatched.get()));
+
+		if(cmd.failures.isEmpty()) return 0;
+
+		List<Map.Entry<String, Failure>> byCount = new ArrayList<>(cmd.failures.entrySet());
+		byCount.sort(Comparator.comparing((Map.Entry<String, Failure> e) -> e.getValue().count.get()).reversed().thenComparing(Map.Entry::getKey));
+		System.err.println("Failures by type:");
+		for(Map.Entry<String, Failure> e : byCount) {
+			System.err.println(String.format("%,8d  %s (e.g. %s)", e.getValue().count.get(), e.getKey(), e.getValue().example));
+		}
+		return 1;
+	}
+
+	private static int usage() {
+		System.err.println("Usage: roundtrip [<module or directory in jrt:/modules>] [--threads <n>] [--limit <n>]");
+		return 2;
+	}
+
+	private void roundTrip(Path path) {
+		String name = path.toString();
+		String stage = "read";
+		try {
+			byte[] bytes = Files.readAllBytes(path);
+			bytesRead.addAndGet(bytes.length);
+			ClassFile cf = new ClassFile(new ByteArrayInputStream(bytes));
+
+			stage = "format";
+			StringBuilder textBuilder = new StringBuilder();
+			FormatIndex.Builder indexBuilder = new FormatIndex.Builder(textBuilder);
+			ClassFileFormatter.formatClass(cf, indexBuilder);
+			String text = textBuilder.toString();
+			FormatIndex index = indexBuilder.build();
+
+			stage = "disassemble";
+			String disassembled = ClassFileDisassembler.disassemble(bytes);
+			if(!disassembled.equals(text)) {
+				mismatched.incrementAndGet();
+				fail("ClassFileDisassembler differs in " + describeLocation(text, index, firstDifference(text, disassembled)), name);
+			}
+
+			stage = "parse";
+			var parsed = ClassFileParser.parseInto(cf, text, null);
+			if(parsed.isErr()) {
+				failed.incrementAndGet();
+				fail("parse error in " + describeLocation(text, index, parsed.getErr().getIndex()), name);
+				return;
+			}
+
+			stage = "write";
+			ByteArrayOutputStream bOut = new ByteArrayOutputStream(bytes.length);
+			parsed.value().write(bOut);
+			byte[] written = bOut.toByteArray();
+			if(Arrays.equals(bytes, written)) {
+				identical.incrementAndGet();
+				return;
+			}
+
+			// Different bytes are fine as long as the class still formats to the same text, e.g. because the constant pool was reordered
+			stage = "reread";
+			String newText = ClassFileFormatter.formatClass(new ClassFile(new ByteArrayInputStream(written)));
+			int diff = firstDifference(text, newText);
+			if(diff == -1) {
+				equivalent.incrementAndGet();
+				return;
+			}
+
+			failed.incrementAndGet();
+			fail("changed " + describeLocation(text, index, diff), name);
+		}catch(Exception e) {
+			failed.incrementAndGet();
+			fail(stage + " failed with " + e.getClass().getSimpleName(), name);
+		}
+	}
+
+	private void fail(String type, String example) {
+		failures.computeIfAbsent(type, t -> new Failure(example)).count.incrementAndGet();
+	}
+
+	private static int firstDifference(String a, String b) {
+		int length = Math.min(a.length(), b.length());
+		for(int i = 0; i < length; i++) {
+			if(a.charAt(i) != b.charAt(i)) return i;
+		}
+		return a.length() == b.length() ? -1 : length;
+	}
+
+	// Describes the innermost attribute and, inside of code, the instruction at an index of the formatted text
+	private static String describeLocation(String text, FormatIndex index, int offset) {
+		int range = index.find(offset);
+		if(range == -1) return "class header";
+
+		int attribute = index.find(offset, FormatIndex.ATTRIBUTE);
+		if(attribute == -1) {
+			while(index.getParent(range) != -1) range = index.getParent(range);
+			switch(index.getType(range)) {
+				case FormatIndex.FIELD:
+					return "field";
+				case FormatIndex.METHOD:
+					return "method";
+				default:
+				{
+					int line = index.getLine(offset);
+					String entry = text.substring(index.getLineStart(line), line + 1 < index.getLineCount() ? index.getLineStart(line + 1) : text.length()).strip();
+					return "constantpool " + entry.substring(0, Math.max(entry.indexOf('{'), 0));
+				}
+			}
+		}
+
+		String description = "attribute " + index.getName(attribute);
+		if(index.getType(range) == FormatIndex.INSTRUCTION) description += ", instruction " + index.getName(range);
+		return description;
+	}
+
+	private static class Failure {
+
+		private String example;
+		private AtomicInteger count;
+
+		public Failure(String example) {
+			this.example = example;
+			this.count = new AtomicInteger();
+		}
+
+	}
+
+	private class RoundTripTask extends RecursiveAction {
+
+		private static final long serialVersionUID = -2016458309117360542L;
+
+		private int from, to;
+
+		public RoundTripTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= BATCH_SIZE) {
+				for(int i = from; i < to; i++) roundTrip(classes[i]);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new RoundTripTask(from, mid), new RoundTripTask(mid, to));
+		}
+
+	}
+
+}
@@ -0,0 +1,37 @@
+package me.mrletsplay.jareditor.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+// Entry names are relative to the archive root without a leading slash, the root itself is ""
+public interface ArchiveBackend extends Closeable {
+
+	public static final String BACKEND_PROPERTY = "jareditor.backend";
+
+	public boolean isDirectory(String path);
+
+	public List<String> list(String directory);
+
+	public byte[] read(String path) throws IOException;
+
+	// Used to open nested archives, implementations may return a view instead of a copy
+	public default ByteBuffer readBuffer(String path) throws IOException {
+		return ByteBuffer.wrap(read(path));
+	}
+
+	public static ArchiveBackend open(Path filePath) throws IOException {
+		String backend = System.getProperty(BACKEND_PROPERTY, "zipfs");
+		switch(backend) {
+			case "mapped":
+				return new MappedZipBackend(filePath);
+			case "zipfs":
+				return new ZipFileSystemBackend(filePath);
+			default:
+				throw new IllegalArgumentException("Unknown archive backend: " + backend);
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package me.mrletsplay.jareditor.file;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import me.mrletsplay.jareditor.zip.ZipIndex;
+
+public class ArchiveChanges {
+
+	private ZipIndex base;
+	private ZipIndex index;
+	private ArchiveBackend backend; // Opened on the new archive, null if nothing changed
+	private Set<String> changedEntries;
+	private Set<String> structuralEntries;
+	private List<EditorItem> conflicts;
+
+	ArchiveChanges(ZipIndex base, ZipIndex index, ArchiveBackend backend, Set<String> changedEntries, Set<String> structuralEntries) {
+		this.base = base;
+		this.index = index;
+		this.backend = backend;
+		this.changedEntries = changedEntries;
+		this.structuralEntries = structuralEntries;
+		this.conflicts = new ArrayList<>();
+	}
+
+	ZipIndex getBase() {
+		return base;
+	}
+
+	ZipIndex getIndex() {
+		return index;
+	}
+
+	ArchiveBackend getBackend() {
+		return backend;
+	}
+
+	Set<String> getStructuralEntries() {
+		return structuralEntries;
+	}
+
+	// Closes the backend opened for changes that won't be applied
+	public void discard() throws IOException {
+		if(backend != null) backend.close();
+	}
+
+	public Set<String> getChangedEntries() {
+		return changedEntries;
+	}
+
+	// Items with unsaved changes whose entry was modified or removed on disk
+	public List<EditorItem> getConflicts() {
+		return conflicts;
+	}
+
+	public boolean isEmpty() {
+		return changedEntries.isEmpty();
+	}
+
+}
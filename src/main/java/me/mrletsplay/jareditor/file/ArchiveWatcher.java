@@ -0,0 +1,66 @@
+package me.mrletsplay.jareditor.file;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+public class ArchiveWatcher implements Closeable {
+
+	private static final long SETTLE_TIME = 500; // ms without events before a change is reported
+
+	private Path filePath;
+	private Runnable onChange;
+	private WatchService watchService;
+
+	public ArchiveWatcher(Path filePath, Runnable onChange) throws IOException {
+		this.filePath = filePath.toAbsolutePath();
+		this.onChange = onChange;
+		this.watchService = this.filePath.getFileSystem().newWatchService();
+		this.filePath.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+		Thread t = new Thread(this::run, "JAREditor-Watcher");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	public Path getFilePath() {
+		return filePath;
+	}
+
+	private void run() {
+		try {
+			while(true) {
+				if(!isRelevant(watchService.take())) continue;
+
+				// Builds usually write the file in several steps, wait for them to finish
+				WatchKey key;
+				while((key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) isRelevant(key);
+				onChange.run();
+			}
+		}catch(InterruptedException | ClosedWatchServiceException e) {
+			return;
+		}
+	}
+
+	private boolean isRelevant(WatchKey key) {
+		boolean relevant = false;
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW || filePath.getFileName().equals(event.context())) relevant = true;
+		}
+
+		key.reset();
+		return relevant;
+	}
+
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+}
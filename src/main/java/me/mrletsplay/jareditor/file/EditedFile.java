@@ -1,10 +1,20 @@
 package me.mrletsplay.jareditor.file;
 
+import java.util.Objects;
+
+import me.mrletsplay.jareditor.format.FormatIndex;
+import me.mrletsplay.jareditor.format.MemberHashes;
+
 public class EditedFile {
 
 	private EditorItem item;
 	private byte[] originalContents;
 	private String editorContents;
+	private byte[] modifiedContents;
+	private String modifiedEditorContents; // The editor contents the modified contents were created from
+	private MemberHashes memberHashes;
+	private FormatIndex formatIndex; // Kept up to date with the editor contents, null if the contents weren't formatted from a class
+	private boolean edited;
 
 	public EditedFile(EditorItem item, byte[] originalContents) {
 		this.item = item;
@@ -20,11 +30,74 @@ public class EditedFile {
 	}
 
 	public void setEditorContents(String editorContents) {
+		if(this.editorContents != null && !this.editorContents.equals(editorContents)) edited = true;
 		this.editorContents = editorContents;
+		item.getOpenedFile().getCache().update(item);
+	}
+
+	// For changes that don't affect the meaning of the text, e.g. expanding folded sections
+	public void replaceEditorContents(String editorContents) {
+		this.editorContents = editorContents;
+		item.getOpenedFile().getCache().update(item);
 	}
 
 	public String getEditorContents() {
 		return editorContents;
 	}
 
+	// Hashes of the members in the text the original contents were formatted to
+	public void setMemberHashes(MemberHashes memberHashes) {
+		this.memberHashes = memberHashes;
+	}
+
+	public MemberHashes getMemberHashes() {
+		return memberHashes;
+	}
+
+	public void setFormatIndex(FormatIndex formatIndex) {
+		this.formatIndex = formatIndex;
+	}
+
+	public FormatIndex getFormatIndex() {
+		return formatIndex;
+	}
+
+	public void setModifiedContents(byte[] modifiedContents) {
+		this.modifiedContents = modifiedContents;
+		this.modifiedEditorContents = editorContents;
+	}
+
+	public byte[] getModifiedContents() {
+		return modifiedContents;
+	}
+
+	public boolean isDirty() {
+		return modifiedContents != null;
+	}
+
+	public boolean isEdited() {
+		return edited;
+	}
+
+	// Files with changes that only exist in memory can't be re-read from the archive
+	public boolean isPinned() {
+		return edited || isDirty();
+	}
+
+	public long getRetainedSize() {
+		long size = originalContents.length;
+		if(modifiedContents != null) size += modifiedContents.length;
+		if(editorContents != null) size += editorContents.length() * 2L; // Upper bound, strings may be stored as Latin-1
+		if(modifiedEditorContents != null && modifiedEditorContents != editorContents) size += modifiedEditorContents.length() * 2L;
+		return size;
+	}
+
+	void commit() {
+		originalContents = modifiedContents;
+		modifiedContents = null;
+		edited = !Objects.equals(editorContents, modifiedEditorContents); // Only edits made after the contents were modified remain
+		modifiedEditorContents = null;
+		memberHashes = null; // The indices refer to the old contents
+	}
+
 }
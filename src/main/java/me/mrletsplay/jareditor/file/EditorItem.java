@@ -1,54 +1,117 @@
 package me.mrletsplay.jareditor.file;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class EditorItem {
 
 	private OpenedFile openedFile;
-	private Path path;
+	private EditorItem container; // The nested archive containing this item, null for the opened file itself
+	private String path;
 	private String displayName;
+	private boolean directory;
 	private EditedFile file;
+	private boolean nestedArchive;
+	private MappedZipBackend nestedBackend;
+	private boolean conflict;
 
+	private List<String> childPaths; // Listed while resolving the item, turned into children on demand
 	private List<EditorItem> children;
 
-	public EditorItem(OpenedFile openedFile, Path path, String displayName) {
+	public EditorItem(OpenedFile openedFile, EditorItem container, String path, String displayName, boolean directory) {
 		this.openedFile = openedFile;
+		this.container = container;
 		this.path = path;
 		this.displayName = displayName;
-		this.children = new ArrayList<>();
+		this.directory = directory;
+	}
+
+	EditorItem(OpenedFile openedFile, EditorItem container, String path, String displayName, List<String> childPaths) {
+		this(openedFile, container, path, displayName, true);
+		this.childPaths = childPaths;
 	}
 
 	public OpenedFile getOpenedFile() {
 		return openedFile;
 	}
 
-	public Path getPath() {
+	public EditorItem getContainer() {
+		return container;
+	}
+
+	public int getNestingDepth() {
+		return container == null ? 0 : container.getNestingDepth() + 1;
+	}
+
+	public String getPath() {
 		return path;
 	}
 
+	public String getFileName() {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
 	public String getDisplayName() {
 		return displayName;
 	}
 
-	public void addChild(EditorItem child) {
-		children.add(child);
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public boolean isNestedArchive() {
+		return nestedArchive;
+	}
+
+	void setNestedArchive() {
+		this.directory = true;
+		this.nestedArchive = true;
+	}
+
+	synchronized MappedZipBackend getNestedBackend() {
+		if(nestedBackend == null) nestedBackend = openedFile.openNested(this);
+		return nestedBackend;
 	}
 
-	public List<EditorItem> getChildren() {
-		return children;
+	synchronized void closeNestedBackend() {
+		if(nestedBackend == null) return;
+		nestedBackend.close();
+		nestedBackend = null;
+	}
+
+	public synchronized List<EditorItem> getChildren() {
+		if(children != null) return children;
+		if(!directory) return children = new ArrayList<>();
+
+		EditorItem childContainer = nestedArchive ? this : container;
+		List<String> paths = childPaths != null ? childPaths : openedFile.getBackend(childContainer).list(nestedArchive ? "" : path);
+		List<EditorItem> items = new ArrayList<>(paths.size());
+		for(String c : paths) items.add(openedFile.createItem(childContainer, c, c.substring(c.lastIndexOf('/') + 1)));
+		childPaths = null;
+		return children = items;
+	}
+
+	public synchronized boolean isLoaded() {
+		return children != null;
 	}
 
 	public EditedFile open() {
-		if(file != null) return file;
-		if(Files.isDirectory(path)) return null;
+		if(file != null) {
+			openedFile.getCache().touch(this);
+			return file;
+		}
+
+		if(directory) return null;
 		byte[] bytes;
 		try {
-			bytes = Files.readAllBytes(path);
-			return file = new EditedFile(this, bytes);
+			bytes = openedFile.read(this);
+			file = new EditedFile(this, bytes);
+			openedFile.getCache().update(this);
+			return file;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
@@ -58,14 +121,117 @@ public class EditorItem {
 		return file;
 	}
 
-	public void update() {
-		if(path != null) path = openedFile.getFileSystem().getPath(path.toString());
-		for(EditorItem child : children) child.update();
+	void evict() {
+		file = null;
+	}
+
+	public boolean isConflicted() {
+		return conflict;
+	}
+
+	void clearConflict() {
+		conflict = false;
+	}
+
+	// Called after the archive was changed externally, paths are relative to the opened archive
+	synchronized void refresh(Set<String> changed, Set<String> structural, List<EditorItem> conflicts) {
+		if(!directory) {
+			if(changed.contains(path)) invalidate(conflicts);
+			return;
+		}
+
+		if(nestedArchive) {
+			if(!changed.contains(path) || children == null) return;
+			List<EditorItem> pinned = new ArrayList<>();
+			collectPinned(pinned);
+			if(pinned.isEmpty()) {
+				children = null;
+			}else {
+				rebind(conflicts); // The loaded items would otherwise keep the contents and listing of the old nested archive
+			}
+			return;
+		}
+
+		String prefix = path.isEmpty() ? "" : path + "/";
+		boolean relist = structural.stream().anyMatch(p -> p.startsWith(prefix));
+		if(children == null) {
+			if(relist) childPaths = null;
+			return;
+		}
+
+		if(relist) {
+			Map<String, EditorItem> existing = new HashMap<>();
+			for(EditorItem c : children) existing.put(c.getPath(), c);
+
+			List<EditorItem> items = new ArrayList<>();
+			for(String c : openedFile.getBackend(container).list(path)) {
+				EditorItem item = openedFile.createItem(container, c, c.substring(c.lastIndexOf('/') + 1));
+				EditorItem old = existing.remove(item.getPath());
+				items.add(old != null && old.directory == item.directory ? old : item);
+			}
+
+			for(EditorItem removed : existing.values()) removed.refresh(changed, structural, conflicts);
+			children = items;
+		}
+
+		for(EditorItem c : children) c.refresh(changed, structural, conflicts);
+	}
+
+	// Re-lists the loaded items of a replaced nested archive against its reopened backend
+	private synchronized void rebind(List<EditorItem> conflicts) {
+		if(!directory) {
+			invalidate(conflicts);
+			return;
+		}
+
+		if(children == null) {
+			childPaths = null;
+			return;
+		}
+
+		EditorItem childContainer = nestedArchive ? this : container;
+		Map<String, EditorItem> existing = new HashMap<>();
+		for(EditorItem c : children) existing.put(c.getPath(), c);
+
+		List<EditorItem> items = new ArrayList<>();
+		for(String c : openedFile.getBackend(childContainer).list(nestedArchive ? "" : path)) {
+			EditorItem item = openedFile.createItem(childContainer, c, c.substring(c.lastIndexOf('/') + 1));
+			EditorItem old = existing.remove(item.getPath());
+			items.add(old != null && old.directory == item.directory ? old : item);
+		}
+
+		for(EditorItem removed : existing.values()) removed.rebind(conflicts);
+		children = items;
+		for(EditorItem c : children) c.rebind(conflicts);
+	}
+
+	private void invalidate(List<EditorItem> conflicts) {
+		if(file == null) return;
+		if(file.isPinned()) {
+			markConflict(conflicts);
+			return;
+		}
+
+		openedFile.getCache().remove(this);
+		file = null;
+	}
+
+	private void markConflict(List<EditorItem> conflicts) {
+		if(conflict) return;
+		conflict = true;
+		conflicts.add(this);
+	}
+
+	private void collectPinned(List<EditorItem> pinned) {
+		if(file != null && file.isPinned()) pinned.add(this);
+		if(children != null) {
+			for(EditorItem c : children) c.collectPinned(pinned);
+		}
 	}
 
 	@Override
 	public String toString() {
-		return displayName + (file != null ? "*" : "");
+		return displayName + (file != null && file.isDirty() ? "*" : "") + (conflict ? " (changed on disk)" : "");
 	}
 
 }
@@ -0,0 +1,73 @@
+package me.mrletsplay.jareditor.file;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class FileCache {
+
+	public static final String SIZE_PROPERTY = "jareditor.cache.size"; // In MiB
+
+	private long maxBytes;
+	private long retainedBytes;
+	private Map<EditorItem, Long> entries; // Access ordered, eldest first
+
+	public FileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+	}
+
+	public static FileCache createDefault() {
+		return new FileCache(Long.getLong(SIZE_PROPERTY, 256) * 1024 * 1024);
+	}
+
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized void touch(EditorItem item) {
+		entries.get(item);
+	}
+
+	synchronized void update(EditorItem item) {
+		EditedFile file = item.getFile();
+		if(file == null) return;
+
+		long size = file.getRetainedSize();
+		Long old = entries.put(item, size);
+		retainedBytes += size - (old == null ? 0 : old);
+		evict(item);
+	}
+
+	synchronized void remove(EditorItem item) {
+		Long old = entries.remove(item);
+		if(old != null) retainedBytes -= old;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		retainedBytes = 0;
+	}
+
+	private void evict(EditorItem current) {
+		Iterator<Map.Entry<EditorItem, Long>> it = entries.entrySet().iterator();
+		while(retainedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<EditorItem, Long> en = it.next();
+			EditorItem item = en.getKey();
+			if(item == current || item.getFile().isPinned()) continue;
+
+			it.remove();
+			retainedBytes -= en.getValue();
+			item.evict();
+		}
+	}
+
+}
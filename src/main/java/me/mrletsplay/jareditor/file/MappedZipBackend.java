@@ -0,0 +1,61 @@
+package me.mrletsplay.jareditor.file;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import me.mrletsplay.jareditor.zip.MappedZipFile;
+import me.mrletsplay.jareditor.zip.ZipIndex;
+
+public class MappedZipBackend implements ArchiveBackend {
+
+	private MappedZipFile zipFile;
+
+	public MappedZipBackend(Path filePath) throws IOException {
+		this.zipFile = MappedZipFile.open(filePath);
+	}
+
+	public MappedZipBackend(MappedZipFile zipFile) {
+		this.zipFile = zipFile;
+	}
+
+	public MappedZipFile getZipFile() {
+		return zipFile;
+	}
+
+	@Override
+	public boolean isDirectory(String path) {
+		return zipFile.isDirectory(path);
+	}
+
+	@Override
+	public List<String> list(String directory) {
+		return zipFile.list(directory);
+	}
+
+	@Override
+	public byte[] read(String path) throws IOException {
+		return zipFile.read(getEntry(path));
+	}
+
+	@Override
+	public ByteBuffer readBuffer(String path) throws IOException {
+		int entry = getEntry(path);
+		if(zipFile.getIndex().getMethod(entry) == ZipIndex.METHOD_STORED) return zipFile.getRawData(entry);
+		return ByteBuffer.wrap(zipFile.read(entry));
+	}
+
+	private int getEntry(String path) throws FileNotFoundException {
+		int entry = zipFile.getEntry(path);
+		if(entry == -1) throw new FileNotFoundException(path);
+		return entry;
+	}
+
+	@Override
+	public void close() {
+		zipFile.close();
+	}
+
+}
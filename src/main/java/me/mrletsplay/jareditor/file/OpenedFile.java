@@ -1,61 +1,115 @@
 package me.mrletsplay.jareditor.file;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import me.mrletsplay.jareditor.zip.MappedZipFile;
+import me.mrletsplay.jareditor.zip.ZipArchiveWriter;
+import me.mrletsplay.jareditor.zip.ZipIndex;
 
 public class OpenedFile {
 
-	private Path filePath;
-	private FileSystem fileSystem; // For archives
+	private volatile Path filePath;
+	private ArchiveBackend backend; // For archives
 	private EditorItem root;
+	private Set<EditedFile> dirtyFiles;
+	private FileCache cache;
+	private List<EditorItem> nestedArchives;
+	private volatile ZipIndex snapshot; // Central directory as of the last open, save or reload
 
 	public OpenedFile(Path filePath) {
+		this(filePath, null);
+	}
+
+	// index is the central directory of the archive if it was already read, null to read it here
+	public OpenedFile(Path filePath, ZipIndex index) {
 		this.filePath = filePath;
+		this.dirtyFiles = new LinkedHashSet<>();
+		this.cache = FileCache.createDefault();
+		this.nestedArchives = new ArrayList<>();
 
-		if(!filePath.getFileName().toString().endsWith(".class")) {
+		if(isArchive(filePath)) {
 			try {
-				fileSystem = FileSystems.newFileSystem(filePath, (ClassLoader) null);
+				backend = ArchiveBackend.open(filePath);
+				snapshot = index != null ? index : readIndex();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 		}
 
-		root = new EditorItem(this, fileSystem == null ? filePath : null, filePath.getFileName().toString());
-		if(fileSystem != null) {
-			root = add(root, fileSystem.getPath("/"));
+		if(backend != null) {
+			root = createItem(null, "", filePath.getFileName().toString());
+		}else {
+			root = new EditorItem(this, null, filePath.getFileName().toString(), filePath.getFileName().toString(), false);
+		}
+	}
+
+	EditorItem createItem(EditorItem container, String path, String displayName) {
+		ArchiveBackend backend = getBackend(container);
+		if(!backend.isDirectory(path)) {
+			EditorItem item = new EditorItem(this, container, path, displayName, false);
+			if(isNestedArchive(path)) item.setNestedArchive();
+			return item;
 		}
+
+		List<String> children = backend.list(path);
+		while(children.size() == 1 && backend.isDirectory(children.get(0))) {
+			path = children.get(0);
+			displayName += "/" + path.substring(path.lastIndexOf('/') + 1);
+			children = backend.list(path);
+		}
+
+		return new EditorItem(this, container, path, displayName, children);
+	}
+
+	private static boolean isNestedArchive(String path) {
+		String name = path.toLowerCase();
+		return name.endsWith(".jar") || name.endsWith(".war") || name.endsWith(".zip");
 	}
 
-	private EditorItem add(EditorItem item, Path p) {
+	// Nested archives are read through a view of the parent entry if it is stored, deflated ones are inflated once and kept for as long as the archive is open
+	MappedZipBackend openNested(EditorItem item) {
 		try {
-			List<Path> children = StreamSupport.stream(Files.newDirectoryStream(p).spliterator(), false)
-				.sorted()
-				.collect(Collectors.toList());
-
-			if(children.size() == 1 && Files.isDirectory(children.get(0))) {
-				Path c = children.get(0);
-				item = new EditorItem(this, c, item.getDisplayName() + "/" + c.getFileName().toString());
-				if(Files.isDirectory(c)) item = add(item, c);
-				return item;
-			}else {
-				for(Path c : children) {
-					EditorItem it = new EditorItem(this, c, c.getFileName().toString());
-					if(Files.isDirectory(c)) it = add(it, c);
-					item.addChild(it);
-				}
-				return item;
+			ByteBuffer data = getBackend(item.getContainer()).readBuffer(item.getPath());
+			MappedZipBackend nested = new MappedZipBackend(new MappedZipFile(data));
+			synchronized(nestedArchives) {
+				nestedArchives.add(item);
 			}
+			return nested;
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	ArchiveBackend getBackend(EditorItem container) {
+		return container == null ? backend : container.getNestedBackend();
+	}
+
+	byte[] read(EditorItem item) throws IOException {
+		if(backend == null) return Files.readAllBytes(filePath);
+		return getBackend(item.getContainer()).read(item.getPath());
+	}
+
 	public EditorItem getRoot() {
 		return root;
 	}
@@ -64,35 +118,223 @@ public class OpenedFile {
 		return filePath;
 	}
 
-	public FileSystem getFileSystem() {
-		return fileSystem;
+	public ArchiveBackend getBackend() {
+		return backend;
 	}
 
 	public boolean isArchive() {
-		return fileSystem != null;
+		return backend != null;
+	}
+
+	public static boolean isArchive(Path filePath) {
+		return !filePath.getFileName().toString().endsWith(".class");
+	}
+
+	public FileCache getCache() {
+		return cache;
 	}
 
-	public void flush() {
-		if(fileSystem != null) {
+	public void markDirty(EditedFile file, byte[] contents) {
+		file.setModifiedContents(contents);
+		dirtyFiles.add(file);
+		cache.update(file.getItem());
+	}
+
+	// Single classes are written right away instead of being marked dirty, the edit is committed like the dirty files of an archive on save
+	public void saveFile(EditedFile file, byte[] contents) throws IOException {
+		if(backend != null) throw new IllegalStateException("Is an archive");
+
+		Files.write(filePath, contents);
+		file.setModifiedContents(contents);
+		file.commit();
+		file.getItem().clearConflict();
+		cache.update(file.getItem());
+		dirtyFiles.remove(file);
+	}
+
+	public Set<EditedFile> getDirtyFiles() {
+		return dirtyFiles;
+	}
+
+	public void saveArchive(Path target) throws IOException {
+		if(backend == null) throw new IllegalStateException("Not an archive");
+
+		Map<EditorItem, Map<String, byte[]>> modifiedByContainer = new HashMap<>();
+		for(EditedFile f : dirtyFiles) {
+			EditorItem item = f.getItem();
+			modifiedByContainer.computeIfAbsent(item.getContainer(), c -> new LinkedHashMap<>()).put(item.getPath(), f.getModifiedContents());
+		}
+
+		// Rebuild modified nested archives innermost first, each one becomes a modified entry of its container, which then has to be rebuilt as well
+		PriorityQueue<EditorItem> containers = new PriorityQueue<>(Comparator.comparingInt(EditorItem::getNestingDepth).reversed());
+		for(EditorItem c : modifiedByContainer.keySet()) {
+			if(c != null) containers.add(c);
+		}
+
+		EditorItem c;
+		while((c = containers.poll()) != null) {
+			byte[] rebuilt = rebuildNested(c.getNestedBackend().getZipFile(), modifiedByContainer.get(c));
+			EditorItem parent = c.getContainer();
+			if(parent != null && !modifiedByContainer.containsKey(parent)) containers.add(parent);
+			modifiedByContainer.computeIfAbsent(parent, k -> new LinkedHashMap<>()).put(c.getPath(), rebuilt);
+		}
+
+		Map<String, byte[]> modified = modifiedByContainer.getOrDefault(null, new LinkedHashMap<>());
+
+		Path tmp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+		try {
+			try(FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ZipIndex index = ZipIndex.read(in);
+				ZipArchiveWriter writer = new ZipArchiveWriter(out);
+				writeArchive(writer, index, modified, i -> writer.copyRaw(in, index, i));
+				out.force(false);
+			}
+
+			copyPermissions(Files.exists(target) ? target : filePath, tmp);
+			backend.close();
 			try {
-				fileSystem.close();
-				fileSystem = FileSystems.newFileSystem(filePath, (ClassLoader) null);
-			} catch (IOException e) {
-				throw new RuntimeException(e);
+				try {
+					Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}catch(AtomicMoveNotSupportedException e) {
+					Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+
+				filePath = target;
+			}finally {
+				backend = ArchiveBackend.open(filePath);
+				closeNested(); // Reopened from the new archive on demand
+				snapshot = readIndex();
+			}
+		}finally {
+			Files.deleteIfExists(tmp);
+		}
+
+		for(EditedFile f : dirtyFiles) {
+			f.commit();
+			f.getItem().clearConflict();
+			cache.update(f.getItem());
+		}
+		dirtyFiles.clear();
+	}
+
+	// Compares the archive on disk to the last known state without touching any items, so it can run off the FX thread. The result is applied with applyChanges
+	public ArchiveChanges checkChanges() throws IOException {
+		if(backend == null) throw new IllegalStateException("Not an archive");
+
+		ZipIndex snapshot = this.snapshot;
+		Path filePath = this.filePath;
+		ZipIndex index = readIndex(filePath);
+		Set<String> changed = new HashSet<>();
+		Set<String> structural = new HashSet<>(); // Added or removed entries
+		for(int i = 0; i < index.size(); i++) {
+			String name = index.getName(i);
+			int old = snapshot.indexOf(name);
+			if(old == -1) {
+				structural.add(toItemPath(name));
+			}else if(snapshot.getCrc(old) != index.getCrc(i) || snapshot.getSize(old) != index.getSize(i)) {
+				changed.add(toItemPath(name));
+			}
+		}
+
+		for(int i = 0; i < snapshot.size(); i++) {
+			String name = snapshot.getName(i);
+			if(index.indexOf(name) == -1) structural.add(toItemPath(name));
+		}
+
+		changed.addAll(structural);
+		if(changed.isEmpty()) return new ArchiveChanges(snapshot, index, null, changed, structural);
+		return new ArchiveChanges(snapshot, index, ArchiveBackend.open(filePath), changed, structural);
+	}
+
+	// Updates only the items whose entries changed, returns false if the archive was saved or reloaded since the changes were checked
+	public boolean applyChanges(ArchiveChanges changes) throws IOException {
+		if(changes.getBase() != snapshot) {
+			changes.discard();
+			return false;
+		}
+
+		if(changes.isEmpty()) return true;
+
+		backend.close();
+		closeNested();
+		backend = changes.getBackend();
+		snapshot = changes.getIndex();
+
+		root.refresh(changes.getChangedEntries(), changes.getStructuralEntries(), changes.getConflicts());
+		return true;
+	}
+
+	// Temporary files are created readable by the owner only
+	private static void copyPermissions(Path from, Path to) throws IOException {
+		if(!Files.getFileStore(from).supportsFileAttributeView(PosixFileAttributeView.class)
+			|| !Files.getFileStore(to).supportsFileAttributeView(PosixFileAttributeView.class)) return;
+		Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+	}
+
+	private ZipIndex readIndex() throws IOException {
+		return readIndex(filePath);
+	}
+
+	private static ZipIndex readIndex(Path filePath) throws IOException {
+		try(FileChannel in = FileChannel.open(filePath, StandardOpenOption.READ)) {
+			return ZipIndex.read(in);
+		}
+	}
+
+	private static String toItemPath(String entryName) {
+		return entryName.endsWith("/") ? entryName.substring(0, entryName.length() - 1) : entryName;
+	}
+
+	private static byte[] rebuildNested(MappedZipFile zipFile, Map<String, byte[]> modified) throws IOException {
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream(zipFile.getArchiveSize());
+		ZipArchiveWriter writer = new ZipArchiveWriter(Channels.newChannel(bOut));
+		writeArchive(writer, zipFile.getIndex(), modified, i -> writer.copyRaw(zipFile, i));
+		return bOut.toByteArray();
+	}
+
+	private static void writeArchive(ZipArchiveWriter writer, ZipIndex index, Map<String, byte[]> modified, RawCopy copy) throws IOException {
+		modified = new LinkedHashMap<>(modified);
+		for(int i = 0; i < index.size(); i++) {
+			byte[] contents = modified.remove(index.getName(i));
+			if(contents != null) {
+				writer.writeEntry(index.getName(i), contents, index.getMethod(i), index.getDosTime(i));
+			}else {
+				copy.copy(i);
 			}
+		}
+
+		int now = ZipArchiveWriter.toDosTime(LocalDateTime.now());
+		for(Map.Entry<String, byte[]> f : modified.entrySet()) {
+			writer.writeEntry(f.getKey(), f.getValue(), ZipIndex.METHOD_DEFLATED, now);
+		}
+
+		writer.finish();
+	}
 
-			root.update();
+	private void closeNested() {
+		synchronized(nestedArchives) {
+			for(EditorItem item : nestedArchives) item.closeNestedBackend();
+			nestedArchives.clear();
 		}
 	}
 
 	public void close() {
-		if(fileSystem != null) {
+		cache.clear();
+		closeNested();
+		if(backend != null) {
 			try {
-				fileSystem.close();
+				backend.close();
 			} catch (IOException e) {
 				throw new RuntimeException(e);
 			}
 		}
 	}
 
+	private static interface RawCopy {
+
+		public void copy(int entry) throws IOException;
+
+	}
+
 }
@@ -0,0 +1,58 @@
+package me.mrletsplay.jareditor.file;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+public class ZipFileSystemBackend implements ArchiveBackend {
+
+	private FileSystem fileSystem;
+
+	public ZipFileSystemBackend(Path filePath) throws IOException {
+		this.fileSystem = FileSystems.newFileSystem(filePath, (ClassLoader) null);
+	}
+
+	@Override
+	public boolean isDirectory(String path) {
+		return Files.isDirectory(toPath(path));
+	}
+
+	@Override
+	public List<String> list(String directory) {
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(toPath(directory))) {
+			return StreamSupport.stream(stream.spliterator(), false)
+				.sorted()
+				.map(p -> toEntryName(p))
+				.collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public byte[] read(String path) throws IOException {
+		return Files.readAllBytes(toPath(path));
+	}
+
+	private Path toPath(String path) {
+		return fileSystem.getPath("/" + path);
+	}
+
+	private static String toEntryName(Path path) {
+		String name = path.toString();
+		if(name.endsWith("/")) name = name.substring(0, name.length() - 1);
+		return name.startsWith("/") ? name.substring(1) : name;
+	}
+
+	@Override
+	public void close() throws IOException {
+		fileSystem.close();
+	}
+
+}
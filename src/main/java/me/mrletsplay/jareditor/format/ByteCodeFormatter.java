@@ -1,14 +1,13 @@
 package me.mrletsplay.jareditor.format;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 
 import me.mrletsplay.mrcore.misc.ByteUtils;
 import me.mrletsplay.mrcore.misc.classfile.ByteCode;
 import me.mrletsplay.mrcore.misc.classfile.ClassFile;
 import me.mrletsplay.mrcore.misc.classfile.InstructionInformation;
-import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolEntry;
+import me.mrletsplay.mrcore.misc.classfile.attribute.AttributeCode;
 
 public class ByteCodeFormatter {
 
@@ -17,82 +16,165 @@ public class ByteCodeFormatter {
 	}
 
 	private static int intOffset(byte[] bytes) {
-		return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+		return intOffset(bytes, 0);
+	}
+
+	private static int intOffset(byte[] bytes, int i) {
+		return ((bytes[i] & 0xFF) << 24) | ((bytes[i + 1] & 0xFF) << 16) | ((bytes[i + 2] & 0xFF) << 8) | (bytes[i + 3] & 0xFF);
 	}
 
 	public static String formatByteCode(ClassFile cf, ByteCode code, int indent) {
 		StringBuilder b = new StringBuilder();
+		try {
+			formatByteCode(cf, code, indent, b);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return b.toString();
+	}
+
+	public static void formatByteCode(ClassFile cf, ByteCode code, int indent, Appendable b) throws IOException {
+		formatByteCode(cf, code, new int[0], indent, b);
+	}
+
+	public static void formatByteCode(ClassFile cf, ByteCode code, int[] handlers, int indent, Appendable b) throws IOException {
+		formatByteCode(new FormattedConstantPool(cf), code, handlers, indent, b);
+	}
+
+	static void formatByteCode(FormattedConstantPool pool, ByteCode code, int[] handlers, int indent, Appendable b) throws IOException {
 		List<InstructionInformation> instrs = code.parseCode();
+		int[] labels = findLabels(instrs, handlers);
+
 		int loc = 0;
-		Map<Integer, String> labels = new HashMap<>();
-		int labelIndex = 0;
 		for(InstructionInformation i : instrs) {
-			int loc2 = 0;
-			o: for(InstructionInformation j : instrs) {
-				switch(j.getInstruction()) {
-					case GOTO:
-					case IFEQ:
-					case IFNE:
-					case IFLT:
-					case IFGE:
-					case IFGT:
-					case IFLE:
-					case IF_ACMPEQ:
-					case IF_ACMPNE:
-					case IFNONNULL:
-					case IFNULL:
-					case IF_ICMPEQ:
-					case IF_ICMPNE:
-					case IF_ICMPLT:
-					case IF_ICMPGE:
-					case IF_ICMPGT:
-					case IF_ICMPLE:
-					{
-						short off = shortOffset(j.getInformation());
-						if(loc2 + off == loc) {
-							labels.put(loc, "label" + (labelIndex++));
-							break o;
-						}
-						break;
+			formatInstruction(pool, i, loc, labels, indent, b);
+			loc += i.getSize();
+		}
+	}
+
+	// Returns the label number + 1 for every offset that is targeted by a branch, switch, subroutine call or exception handler, 0 for all other offsets
+	static int[] findLabels(List<InstructionInformation> instrs, int[] handlers) {
+		int length = 0;
+		for(InstructionInformation i : instrs) length += i.getSize();
+
+		int[] labels = new int[length];
+		for(int h : handlers) mark(labels, h);
+
+		int loc = 0;
+		for(InstructionInformation i : instrs) {
+			byte[] info = i.getInformation();
+			switch(i.getInstruction()) {
+				case GOTO:
+				case IFEQ:
+				case IFNE:
+				case IFLT:
+				case IFGE:
+				case IFGT:
+				case IFLE:
+				case IF_ACMPEQ:
+				case IF_ACMPNE:
+				case IFNONNULL:
+				case IFNULL:
+				case IF_ICMPEQ:
+				case IF_ICMPNE:
+				case IF_ICMPLT:
+				case IF_ICMPGE:
+				case IF_ICMPGT:
+				case IF_ICMPLE:
+				case JSR:
+					if(info.length >= 2) mark(labels, loc + shortOffset(info));
+					break;
+				case GOTO_W:
+				case JSR_W:
+					if(info.length >= 4) mark(labels, loc + intOffset(info));
+					break;
+				case TABLESWITCH:
+				{
+					int pad = switchPadding(loc);
+					if(info.length < pad + 12) break;
+					mark(labels, loc + intOffset(info, pad));
+					long count = (long) intOffset(info, pad + 8) - intOffset(info, pad + 4) + 1;
+					for(int j = 0; j < count && pad + 12 + j * 4 + 4 <= info.length; j++) {
+						mark(labels, loc + intOffset(info, pad + 12 + j * 4));
 					}
-					case GOTO_W:
-					{
-						int off = intOffset(j.getInformation());
-						if(loc2 + off == loc) {
-							labels.put(loc, "label" + (labelIndex++));
-							break o;
-						}
-						break;
+					break;
+				}
+				case LOOKUPSWITCH:
+				{
+					int pad = switchPadding(loc);
+					if(info.length < pad + 8) break;
+					mark(labels, loc + intOffset(info, pad));
+					int count = intOffset(info, pad + 4);
+					for(int j = 0; j < count && pad + 8 + j * 8 + 8 <= info.length; j++) {
+						mark(labels, loc + intOffset(info, pad + 8 + j * 8 + 4));
 					}
-					default:
-						break;
+					break;
 				}
-
-				loc2 += j.getSize();
+				default:
+					break;
 			}
+
 			loc += i.getSize();
 		}
 
+		// Number the labels in the order they appear in the code, offsets inside an instruction can't be labelled
+		int labelIndex = 0;
 		loc = 0;
 		for(InstructionInformation i : instrs) {
-			b.append(formatInstruction(cf, i, loc, labels, indent));
+			if(labels[loc] == -1) labels[loc] = ++labelIndex;
 			loc += i.getSize();
 		}
-		return b.toString();
+
+		for(int i = 0; i < labels.length; i++) {
+			if(labels[i] == -1) labels[i] = 0;
+		}
+
+		return labels;
 	}
 
-	private static CharSequence formatInstruction(ClassFile cf, InstructionInformation info, int loc, Map<Integer, String> labels, int indent) {
-		StringBuilder b = new StringBuilder();
-		b.append(indent(indent));
-		if(labels.containsKey(loc)) b.append(labels.get(loc)).append(": ");
-		b.append(info.getInstruction().name().toLowerCase());
-		if(info.getInformation().length > 0) b.append(" ").append(formatInstructionInformation(cf, info, loc, labels));
+	private static void mark(int[] labels, int target) {
+		if(target >= 0 && target < labels.length) labels[target] = -1;
+	}
+
+	private static int switchPadding(int loc) {
+		return (4 - (loc + 1) % 4) % 4;
+	}
+
+	// Handler offsets from the exception table, which is read from the raw attribute because the parsed attribute doesn't expose it
+	public static int[] getExceptionHandlers(AttributeCode code) {
+		byte[] info = code.getInfo();
+		if(info == null || info.length < 8) return new int[0];
+
+		long codeLength = intOffset(info, 4) & 0xFFFFFFFFL;
+		long table = 8 + codeLength;
+		if(table + 2 > info.length) return new int[0];
+
+		int count = ((info[(int) table] & 0xFF) << 8) | (info[(int) table + 1] & 0xFF);
+		if(table + 2 + count * 8L > info.length) return new int[0];
+
+		int[] handlers = new int[count];
+		for(int i = 0; i < count; i++) {
+			int entry = (int) table + 2 + i * 8;
+			handlers[i] = ((info[entry + 4] & 0xFF) << 8) | (info[entry + 5] & 0xFF);
+		}
+		return handlers;
+	}
+
+	private static void formatInstruction(FormattedConstantPool pool, InstructionInformation info, int loc, int[] labels, int indent, Appendable b) throws IOException {
+		String name = info.getInstruction().name().toLowerCase();
+		FormatIndex.begin(b, FormatIndex.INSTRUCTION, name, loc);
+		b.append(ClassFileFormatter.indent(indent));
+		if(labels[loc] != 0) b.append("label").append(String.valueOf(labels[loc] - 1)).append(": ");
+		b.append(name);
+		if(info.getInformation().length > 0) {
+			b.append(" ");
+			formatInstructionInformation(pool, info, loc, labels, b);
+		}
 		b.append("\n");
-		return b;
+		FormatIndex.end(b);
 	}
 
-	private static CharSequence formatInstructionInformation(ClassFile cf, InstructionInformation info, int loc, Map<Integer, String> labels) {
-		StringBuilder b = new StringBuilder();
+	private static void formatInstructionInformation(FormattedConstantPool pool, InstructionInformation info, int loc, int[] labels, Appendable b) throws IOException {
 		byte[] i = info.getInformation();
 		switch(info.getInstruction()) {
 			case INVOKESTATIC:
@@ -106,8 +188,7 @@ public class ByteCodeFormatter {
 			case GETFIELD:
 			case GETSTATIC:
 			{
-				ConstantPoolEntry e = cf.getConstantPool().getEntry(((i[0] & 0xFF) << 8) | i[1] & 0xFF);
-				b.append(ClassFileFormatter.formatConstantPoolEntry(cf, e));
+				b.append(pool.get(((i[0] & 0xFF) << 8) | i[1] & 0xFF));
 				break;
 			}
 			case GOTO:
@@ -118,20 +199,14 @@ public class ByteCodeFormatter {
 			case IFGT:
 			case IFLE:
 			{
-				int off = shortOffset(i);
-				if(labels.containsKey(loc + off)) b.append("label:").append(labels.get(loc + off));
+				int target = loc + shortOffset(i);
+				if(target >= 0 && target < labels.length && labels[target] != 0) b.append("label:label").append(String.valueOf(labels[target] - 1));
 				break;
 			}
 			default:
-				return "0x" + ByteUtils.bytesToHex(info.getInformation());
+				b.append("0x").append(ByteUtils.bytesToHex(info.getInformation()));
+				break;
 		}
-		return b;
-	}
-
-	private static CharSequence indent(int n) {
-		StringBuilder b = new StringBuilder();
-		while(n-- > 0) b.append("\t");
-		return b;
 	}
 
 }
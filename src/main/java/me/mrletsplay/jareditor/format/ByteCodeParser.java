@@ -2,10 +2,13 @@ package me.mrletsplay.jareditor.format;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import me.mrletsplay.jareditor.format.entity.ParserConstantPoolEntry;
 import me.mrletsplay.jareditor.format.string.ParseString;
+import me.mrletsplay.jareditor.format.string.StringView;
 import me.mrletsplay.mrcore.misc.ByteUtils;
 import me.mrletsplay.mrcore.misc.Result;
 import me.mrletsplay.mrcore.misc.classfile.ByteCode;
@@ -16,29 +19,73 @@ import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
 
 public class ByteCodeParser {
 
+	private static final Instruction[][] INSTRUCTIONS_BY_LENGTH; // Lets instructions be matched without copying the token
+
+	static {
+		int maxLength = 0;
+		for(Instruction i : Instruction.values()) maxLength = Math.max(maxLength, i.name().length());
+
+		List<List<Instruction>> byLength = new ArrayList<>();
+		for(int i = 0; i <= maxLength; i++) byLength.add(new ArrayList<>());
+		for(Instruction i : Instruction.values()) byLength.get(i.name().length()).add(i);
+
+		INSTRUCTIONS_BY_LENGTH = new Instruction[maxLength + 1][];
+		for(int i = 0; i <= maxLength; i++) INSTRUCTIONS_BY_LENGTH[i] = byLength.get(i).toArray(Instruction[]::new);
+	}
+
 	public static Result<ByteCode, ParseError> parse(ClassFile cf, ParseString str) {
+		ConstantPoolBuilder pool = new ConstantPoolBuilder(cf);
+		var code = parse(pool, str);
+		pool.build();
+		return code;
+	}
+
+	static Result<ByteCode, ParseError> parse(ConstantPoolBuilder pool, ParseString str) {
+		var code = read(str);
+		if(code.isErr()) return code.up();
+		return Result.of(assemble(pool, code.value()));
+	}
+
+	static Result<ParsedByteCode, ParseError> read(ParseString str) {
+		return read(str, null);
+	}
+
+	// Reads the instructions and resolves labels without touching the constant pool, which allows reading several method bodies at once
+	// With diagnostics, an invalid instruction is recorded and reading continues at the next line
+	static Result<ParsedByteCode, ParseError> read(ParseString str, ParseDiagnostics diagnostics) {
 		List<InstructionInformation> instrs = new ArrayList<>();
 		Map<String, Integer> labels = new HashMap<>();
 		Map<Integer, String> toResolve = new HashMap<>();
+		Map<Integer, Integer> toResolveIndices = new HashMap<>();
+		Map<Integer, ParserConstantPoolEntry> entries = new LinkedHashMap<>();
+		List<ParseError> errors = new ArrayList<>();
 		int loc = 0;
 		while(true) {
 			str.stripLeading();
-			String instr = str.nextToken();
+			StringView instr = str.nextTokenView();
 			if(instr == null) break;
 			if(instr.endsWith(":")) {
-				String label = instr.substring(0, instr.length() - 1);
-				if(labels.containsKey(label)) return  Result.err(new ParseError("Invalid instruction", str.mark() - instr.length()));
+				String label = instr.subSequence(0, instr.length() - 1).toString();
+				if(labels.containsKey(label)) {
+					ParseError err = new ParseError("Invalid instruction", str.mark() - instr.length());
+					if(diagnostics == null) return Result.err(err);
+					errors.add(err);
+					skipLine(str);
+					continue;
+				}
 				labels.put(label, loc);
 				str.stripLeading();
-				instr = str.nextToken();
+				instr = str.nextTokenView();
 				if(instr == null) break;
 			}
 
-			Instruction i;
-			try {
-				i = Instruction.valueOf(instr.toUpperCase());
-			}catch(IllegalArgumentException e) {
-				return Result.err(new ParseError("Invalid instruction '" + instr + "'", str.mark() - instr.length()));
+			Instruction i = findInstruction(instr);
+			if(i == null) {
+				ParseError err = new ParseError("Invalid instruction '" + instr + "'", str.mark() - instr.length());
+				if(diagnostics == null) return Result.err(err);
+				errors.add(err);
+				skipLine(str);
+				continue;
 			}
 
 			int j = 0;
@@ -48,8 +95,13 @@ public class ByteCodeParser {
 			if(arg.end()) {
 				val = new byte[0];
 			}else {
-				var parsed = parseInstructionArgument(cf, arg, instrs.size(), toResolve);
-				if(parsed.isErr()) return parsed.up();
+				var parsed = parseInstructionArgument(arg, instrs.size(), toResolve, toResolveIndices, entries);
+				if(parsed.isErr()) {
+					if(diagnostics == null) return parsed.up();
+					errors.add(parsed.getErr());
+					skipLine(str);
+					continue;
+				}
 				str.advance(j);
 				val = parsed.value();
 			}
@@ -65,32 +117,96 @@ public class ByteCodeParser {
 			if(toResolve.containsKey(i)) {
 				String label = toResolve.get(i);
 				Integer refLoc = labels.get(label);
-				if(refLoc == null) return Result.err(new ParseError("Referenced label '" + label + "' does not exist", 0));
-				instrs.set(i, new InstructionInformation(ii.getInstruction(), ClassFileUtils.getShortBytes(refLoc - loc)));
+				if(refLoc != null) {
+					instrs.set(i, new InstructionInformation(ii.getInstruction(), ClassFileUtils.getShortBytes(refLoc - loc)));
+				}else {
+					ParseError err = new ParseError("Referenced label '" + label + "' does not exist", toResolveIndices.get(i));
+					if(diagnostics == null) return Result.err(err);
+					errors.add(err);
+				}
 			}
 			loc += ii.getSize();
 		}
 
+		if(!errors.isEmpty()) {
+			errors.forEach(diagnostics::add);
+			return Result.err(errors.get(0));
+		}
+
 		if(instrs.isEmpty()) return Result.err(new ParseError("Empty bytecode", str.mark()));
-		return Result.of(ByteCode.of(instrs));
+		return Result.of(new ParsedByteCode(instrs, entries));
+	}
+
+	// Fills in the indices of the referenced entries that are already in the pool. Only looks entries up, so several bodies can be resolved at once while nothing is added to the pool
+	static void resolve(ConstantPoolBuilder pool, ParsedByteCode code) {
+		var it = code.entries.entrySet().iterator();
+		while(it.hasNext()) {
+			var entry = it.next();
+			int idx = ClassFileParser.findConstantPoolEntry(pool, entry.getValue());
+			if(idx == -1) continue;
+			code.instructions.set(entry.getKey(), new InstructionInformation(code.instructions.get(entry.getKey()).getInstruction(), ClassFileUtils.getShortBytes(idx)));
+			it.remove();
+		}
+	}
+
+	// Appends the referenced entries that weren't resolved yet in instruction order, so the constant pool ends up the same no matter how the code was read
+	static ByteCode assemble(ConstantPoolBuilder pool, ParsedByteCode code) {
+		List<InstructionInformation> instrs = code.instructions;
+		for(var entry : code.entries.entrySet()) {
+			int idx = ClassFileParser.appendConstantPoolEntry(pool, entry.getValue());
+			instrs.set(entry.getKey(), new InstructionInformation(instrs.get(entry.getKey()).getInstruction(), ClassFileUtils.getShortBytes(idx)));
+		}
+		return ByteCode.of(instrs);
+	}
+
+	private static Instruction findInstruction(StringView name) {
+		if(name.length() >= INSTRUCTIONS_BY_LENGTH.length) return null;
+		for(Instruction i : INSTRUCTIONS_BY_LENGTH[name.length()]) {
+			if(name.contentEqualsIgnoreCase(i.name())) return i;
+		}
+		return null;
 	}
 
-	private static Result<byte[], ParseError> parseInstructionArgument(ClassFile cf, ParseString str, int idx, Map<Integer, String> toResolve) {
+	private static void skipLine(ParseString str) {
+		int j = 0;
+		while(j < str.remaining() && str.peek(j) != '\n') j++;
+		str.advance(j);
+	}
+
+	private static Result<byte[], ParseError> parseInstructionArgument(ParseString str, int idx, Map<Integer, String> toResolve, Map<Integer, Integer> toResolveIndices, Map<Integer, ParserConstantPoolEntry> entries) {
+		int m = str.mark();
 		if(str.expect("0x")) {
 			try {
 				return Result.of(ByteUtils.hexToBytes(str.next(str.remaining())));
 			}catch(IllegalArgumentException e) {
-				return null;
+				str.reset(m);
+				return Result.err(new ParseError("Invalid hex value", m));
 			}
 		}else if(str.expect("label:")) {
-			String label = str.nextToken();
-			toResolve.put(idx, label);
+			StringView label = str.nextTokenView();
+			if(label == null) return Result.err(new ParseError("Missing label", m));
+			toResolve.put(idx, label.toString());
+			toResolveIndices.put(idx, m);
 			return Result.of(new byte[0]); // To be resolved later
 		}else {
-			var entry = ClassFileParser.parseConstantPoolEntry(cf, str);
+			var entry = ClassFileParser.readConstantPoolEntry(str);
 			if(entry.isErr()) return entry.up();
-			return Result.of(ClassFileUtils.getShortBytes(cf.getConstantPool().indexOf(entry.value())));
+			entries.put(idx, entry.value());
+			return Result.of(new byte[2]); // To be replaced with the index of the entry
+		}
+	}
+
+	// Instructions referencing constant pool entries hold placeholders until the code is assembled
+	static class ParsedByteCode {
+
+		private List<InstructionInformation> instructions;
+		private Map<Integer, ParserConstantPoolEntry> entries; // Instruction index -> entry, in instruction order
+
+		private ParsedByteCode(List<InstructionInformation> instructions, Map<Integer, ParserConstantPoolEntry> entries) {
+			this.instructions = instructions;
+			this.entries = entries;
 		}
+
 	}
 
 }
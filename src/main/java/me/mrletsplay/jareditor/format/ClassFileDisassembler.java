@@ -0,0 +1,641 @@
+package me.mrletsplay.jareditor.format;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.function.ToLongFunction;
+
+import me.mrletsplay.mrcore.misc.ByteUtils;
+import me.mrletsplay.mrcore.misc.classfile.ClassAccessFlag;
+import me.mrletsplay.mrcore.misc.classfile.FieldAccessFlag;
+import me.mrletsplay.mrcore.misc.classfile.MethodAccessFlag;
+import me.mrletsplay.mrcore.misc.classfile.attribute.stackmap.StackMapFrameType;
+import me.mrletsplay.mrcore.misc.classfile.attribute.stackmap.verification.VerificationType;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ReferenceType;
+import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
+
+// Produces the same text as ClassFileFormatter straight from the class bytes, without building a ClassFile
+public class ClassFileDisassembler {
+
+	private static final int MAGIC = 0xCAFEBABE;
+
+	private static final int
+		TAG_UTF8 = 1,
+		TAG_INTEGER = 3,
+		TAG_FLOAT = 4,
+		TAG_LONG = 5,
+		TAG_DOUBLE = 6,
+		TAG_CLASS = 7,
+		TAG_STRING = 8,
+		TAG_FIELD_REF = 9,
+		TAG_METHOD_REF = 10,
+		TAG_INTERFACE_METHOD_REF = 11,
+		TAG_NAME_AND_TYPE = 12,
+		TAG_METHOD_HANDLE = 15,
+		TAG_METHOD_TYPE = 16,
+		TAG_INVOKE_DYNAMIC = 18;
+
+	private static final int
+		OP_IFEQ = 0x99,
+		OP_IFLE = 0x9e,
+		OP_JSR = 0xa8,
+		OP_GOTO = 0xa7,
+		OP_TABLESWITCH = 0xaa,
+		OP_LOOKUPSWITCH = 0xab,
+		OP_GETSTATIC = 0xb2,
+		OP_INVOKEINTERFACE = 0xb9,
+		OP_NEW = 0xbb,
+		OP_CHECKCAST = 0xc0,
+		OP_WIDE = 0xc4,
+		OP_IINC = 0x84,
+		OP_IFNULL = 0xc6,
+		OP_IFNONNULL = 0xc7,
+		OP_GOTO_W = 0xc8,
+		OP_JSR_W = 0xc9;
+
+	private static final String[] OPCODE_NAMES = (
+		"nop aconst_null iconst_m1 iconst_0 iconst_1 iconst_2 iconst_3 iconst_4 iconst_5 lconst_0 lconst_1 fconst_0 fconst_1 fconst_2 dconst_0 dconst_1 "
+		+ "bipush sipush ldc ldc_w ldc2_w iload lload fload dload aload iload_0 iload_1 iload_2 iload_3 lload_0 lload_1 lload_2 lload_3 "
+		+ "fload_0 fload_1 fload_2 fload_3 dload_0 dload_1 dload_2 dload_3 aload_0 aload_1 aload_2 aload_3 "
+		+ "iaload laload faload daload aaload baload caload saload istore lstore fstore dstore astore "
+		+ "istore_0 istore_1 istore_2 istore_3 lstore_0 lstore_1 lstore_2 lstore_3 fstore_0 fstore_1 fstore_2 fstore_3 "
+		+ "dstore_0 dstore_1 dstore_2 dstore_3 astore_0 astore_1 astore_2 astore_3 "
+		+ "iastore lastore fastore dastore aastore bastore castore sastore pop pop2 dup dup_x1 dup_x2 dup2 dup2_x1 dup2_x2 swap "
+		+ "iadd ladd fadd dadd isub lsub fsub dsub imul lmul fmul dmul idiv ldiv fdiv ddiv irem lrem frem drem ineg lneg fneg dneg "
+		+ "ishl lshl ishr lshr iushr lushr iand land ior lor ixor lxor iinc i2l i2f i2d l2i l2f l2d f2i f2l f2d d2i d2l d2f i2b i2c i2s "
+		+ "lcmp fcmpl fcmpg dcmpl dcmpg ifeq ifne iflt ifge ifgt ifle if_icmpeq if_icmpne if_icmplt if_icmpge if_icmpgt if_icmple "
+		+ "if_acmpeq if_acmpne goto jsr ret tableswitch lookupswitch ireturn lreturn freturn dreturn areturn return "
+		+ "getstatic putstatic getfield putfield invokevirtual invokespecial invokestatic invokeinterface invokedynamic "
+		+ "new newarray anewarray arraylength athrow checkcast instanceof monitorenter monitorexit wide multianewarray "
+		+ "ifnull ifnonnull goto_w jsr_w").split(" ");
+
+	private static final int[] OPERAND_LENGTHS = new int[OPCODE_NAMES.length]; // -1 for instructions with a variable length
+
+	static {
+		setOperandLength(1, 0x10, 0x12, 0xa9, 0xbc); // bipush, ldc, ret, newarray
+		setOperandLength(1, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a); // Loads and stores with an index
+		setOperandLength(2, 0x11, 0x13, 0x14, OP_IINC, OP_NEW, 0xbd, OP_CHECKCAST, 0xc1, OP_IFNULL, OP_IFNONNULL); // sipush, ldc_w, ldc2_w, iinc, new, anewarray, checkcast, instanceof
+		for(int op = OP_IFEQ; op <= OP_JSR; op++) setOperandLength(2, op);
+		for(int op = OP_GETSTATIC; op < OP_INVOKEINTERFACE; op++) setOperandLength(2, op);
+		setOperandLength(3, 0xc5); // multianewarray
+		setOperandLength(4, OP_INVOKEINTERFACE, 0xba, OP_GOTO_W, OP_JSR_W); // invokeinterface, invokedynamic
+		setOperandLength(-1, OP_TABLESWITCH, OP_LOOKUPSWITCH, OP_WIDE);
+	}
+
+	// Indexed by verification type tag
+	private static final VerificationType[] VERIFICATION_TYPES = {
+		VerificationType.TOP,
+		VerificationType.INTEGER,
+		VerificationType.FLOAT,
+		VerificationType.DOUBLE,
+		VerificationType.LONG,
+		VerificationType.NULL,
+		VerificationType.UNINITIALIZED_THIS,
+		VerificationType.OBJECT,
+		VerificationType.UNINITIALIZED_VARIABLE
+	};
+
+	private ByteBuffer buf;
+	private int[] pool; // Offset of every constant pool entry's tag, 0 for unused indices
+	private String[] utf8; // Decoded UTF8 entries
+	private String[] entries; // Formatted entries referenced by instructions
+
+	private ClassFileDisassembler(ByteBuffer buf) {
+		this.buf = buf.duplicate();
+	}
+
+	private static void setOperandLength(int length, int... opcodes) {
+		for(int op : opcodes) OPERAND_LENGTHS[op] = length;
+	}
+
+	public static String disassemble(byte[] bytes) throws IOException {
+		StringBuilder b = new StringBuilder(bytes.length * 4);
+		disassemble(ByteBuffer.wrap(bytes), b);
+		return b.toString();
+	}
+
+	public static void disassemble(ByteBuffer classBytes, Appendable b) throws IOException {
+		try {
+			new ClassFileDisassembler(classBytes.slice()).disassemble(b);
+		}catch(BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("Truncated or invalid class file", e);
+		}
+	}
+
+	private void disassemble(Appendable b) throws IOException {
+		if(buf.getInt() != MAGIC) throw new IOException("Not a class file");
+		int minor = u2();
+		int major = u2();
+		readConstantPool();
+
+		int accessFlags = u2();
+		int thisClass = u2();
+		int superClass = u2();
+		int interfaceCount = u2();
+		int interfaces = buf.position();
+		buf.position(interfaces + interfaceCount * 2);
+
+		// Class attributes come last in the class file but first in the text
+		int fields = buf.position();
+		skipMembers();
+		int methods = buf.position();
+		skipMembers();
+
+		if(superClass == 0) throw new IOException("Classes without a superclass are not supported");
+
+		b.append("major=").append(String.valueOf(major)).append("\n");
+		b.append("minor=").append(String.valueOf(minor)).append("\n");
+		b.append("name=").append(className(thisClass)).append("\n");
+		b.append("superclass=").append(className(superClass)).append("\n");
+		b.append("interfaces=");
+		for(int i = 0; i < interfaceCount; i++) {
+			if(i != 0) b.append(",");
+			b.append(className(buf.getShort(interfaces + i * 2) & 0xFFFF));
+		}
+		b.append("\n");
+		b.append("flags=");
+		appendFlags(accessFlags, ClassAccessFlag.values(), ClassAccessFlag::getValue, b);
+		b.append("\n\n");
+
+		b.append("constantpool {\n");
+		for(int i = 1; i < pool.length; i++) {
+			if(pool[i] == 0) continue;
+			b.append(ClassFileFormatter.indent(1));
+			formatEntry(i, b);
+			b.append("\n");
+		}
+		b.append("}\n\n");
+
+		int count = u2();
+		for(int i = 0; i < count; i++) formatAttribute(0, b);
+
+		buf.position(fields);
+		count = u2();
+		for(int i = 0; i < count; i++) formatMember("field", FieldAccessFlag.values(), FieldAccessFlag::getValue, b);
+
+		buf.position(methods);
+		count = u2();
+		for(int i = 0; i < count; i++) formatMember("method", MethodAccessFlag.values(), MethodAccessFlag::getValue, b);
+	}
+
+	private void readConstantPool() throws IOException {
+		int count = u2();
+		pool = new int[count];
+		utf8 = new String[count];
+		entries = new String[count];
+		for(int i = 1; i < count; i++) {
+			pool[i] = buf.position();
+			int tag = buf.get() & 0xFF;
+			switch(tag) {
+				case TAG_UTF8:
+					skip(u2());
+					break;
+				case TAG_CLASS:
+				case TAG_STRING:
+				case TAG_METHOD_TYPE:
+					skip(2);
+					break;
+				case TAG_METHOD_HANDLE:
+					skip(3);
+					break;
+				case TAG_INTEGER:
+				case TAG_FLOAT:
+				case TAG_FIELD_REF:
+				case TAG_METHOD_REF:
+				case TAG_INTERFACE_METHOD_REF:
+				case TAG_NAME_AND_TYPE:
+				case TAG_INVOKE_DYNAMIC:
+					skip(4);
+					break;
+				case TAG_LONG:
+				case TAG_DOUBLE:
+					skip(8);
+					i++; // Takes up two entries
+					break;
+				default:
+					throw new IOException("Unsupported constant pool entry tag " + tag);
+			}
+		}
+	}
+
+	private void skipMembers() {
+		int count = u2();
+		for(int i = 0; i < count; i++) {
+			skip(6);
+			skipAttributes();
+		}
+	}
+
+	private void skipAttributes() {
+		int count = u2();
+		for(int i = 0; i < count; i++) {
+			skip(2);
+			skip(buf.getInt());
+		}
+	}
+
+	private <E extends Enum<E>> void formatMember(String type, E[] flagValues, ToLongFunction<E> flagValue, Appendable b) throws IOException {
+		int accessFlags = u2();
+		int name = u2();
+		int descriptor = u2();
+		int attributeCount = u2();
+
+		b.append(type).append(" ").append(utf8(name)).append(" {\n");
+		b.append(ClassFileFormatter.indent(1)).append("descriptor=").append(utf8(descriptor)).append("\n");
+		b.append(ClassFileFormatter.indent(1)).append("flags=");
+		appendFlags(accessFlags, flagValues, flagValue, b);
+		b.append("\n");
+		if(attributeCount != 0) b.append("\n");
+		for(int i = 0; i < attributeCount; i++) formatAttribute(1, b);
+		b.append("}\n\n");
+	}
+
+	private void formatAttribute(int indent, Appendable b) throws IOException {
+		String name = utf8(u2());
+		int length = buf.getInt();
+		int end = buf.position() + length;
+		if(length < 0 || end > buf.limit()) throw new IOException("Invalid attribute length");
+
+		b.append(ClassFileFormatter.indent(indent)).append("attribute ").append(name).append(" {\n");
+		switch(name) {
+			case "Code":
+			{
+				int maxStack = u2();
+				int maxLocals = u2();
+				int codeLength = buf.getInt();
+				int code = buf.position();
+				skip(codeLength);
+
+				int[] handlers = new int[u2()];
+				for(int i = 0; i < handlers.length; i++) {
+					skip(4);
+					handlers[i] = u2();
+					skip(2);
+				}
+
+				b.append(ClassFileFormatter.indent(indent + 1)).append("locals=").append(String.valueOf(maxLocals)).append("\n");
+				b.append(ClassFileFormatter.indent(indent + 1)).append("stack=").append(String.valueOf(maxStack)).append("\n\n");
+				b.append(ClassFileFormatter.indent(indent + 1)).append("info {\n");
+				formatCode(code, codeLength, handlers, indent + 2, b);
+				b.append(ClassFileFormatter.indent(indent + 1)).append("}\n");
+
+				int count = u2();
+				if(count != 0) {
+					b.append("\n");
+					for(int i = 0; i < count; i++) formatAttribute(indent + 1, b);
+				}
+				break;
+			}
+			case "StackMapTable":
+				b.append(ClassFileFormatter.indent(indent + 1)).append("info {\n");
+				formatStackMapTable(indent + 2, b);
+				b.append(ClassFileFormatter.indent(indent + 1)).append("}\n");
+				break;
+			default:
+				b.append(ClassFileFormatter.indent(indent + 1)).append("info {\n");
+				b.append(ClassFileFormatter.indent(indent + 2)).append("0x").append(hex(buf.position(), length)).append("\n");
+				b.append(ClassFileFormatter.indent(indent + 1)).append("}\n");
+				break;
+		}
+		b.append(ClassFileFormatter.indent(indent)).append("}\n\n");
+		buf.position(end);
+	}
+
+	private void formatCode(int code, int length, int[] handlers, int indent, Appendable b) throws IOException {
+		int[] labels = new int[length];
+		for(int h : handlers) mark(labels, h);
+
+		for(int loc = 0; loc < length; loc += instructionSize(code, loc)) {
+			int op = buf.get(code + loc) & 0xFF;
+			int at = code + loc + 1;
+			if((op >= OP_IFEQ && op <= OP_JSR) || op == OP_IFNULL || op == OP_IFNONNULL) {
+				mark(labels, loc + buf.getShort(at));
+			}else if(op == OP_GOTO_W || op == OP_JSR_W) {
+				mark(labels, loc + buf.getInt(at));
+			}else if(op == OP_TABLESWITCH) {
+				at += switchPadding(loc);
+				mark(labels, loc + buf.getInt(at));
+				long count = (long) buf.getInt(at + 8) - buf.getInt(at + 4) + 1;
+				for(int j = 0; j < count; j++) mark(labels, loc + buf.getInt(at + 12 + j * 4));
+			}else if(op == OP_LOOKUPSWITCH) {
+				at += switchPadding(loc);
+				mark(labels, loc + buf.getInt(at));
+				int count = buf.getInt(at + 4);
+				for(int j = 0; j < count; j++) mark(labels, loc + buf.getInt(at + 8 + j * 8 + 4));
+			}
+		}
+
+		// Same numbering as ByteCodeFormatter.findLabels
+		int labelIndex = 0;
+		for(int loc = 0; loc < length; loc += instructionSize(code, loc)) {
+			if(labels[loc] == -1) labels[loc] = ++labelIndex;
+		}
+
+		for(int i = 0; i < labels.length; i++) {
+			if(labels[i] == -1) labels[i] = 0;
+		}
+
+		for(int loc = 0; loc < length;) {
+			int op = buf.get(code + loc) & 0xFF;
+			int size = instructionSize(code, loc);
+
+			b.append(ClassFileFormatter.indent(indent));
+			if(labels[loc] != 0) b.append("label").append(String.valueOf(labels[loc] - 1)).append(": ");
+			b.append(OPCODE_NAMES[op]);
+			if(size > 1) {
+				b.append(" ");
+				int at = code + loc + 1;
+				if((op >= OP_GETSTATIC && op <= OP_INVOKEINTERFACE) || op == OP_NEW || op == OP_CHECKCAST) {
+					b.append(entry(buf.getShort(at) & 0xFFFF));
+				}else if(op == OP_GOTO || (op >= OP_IFEQ && op <= OP_IFLE)) {
+					int target = loc + buf.getShort(at);
+					if(target >= 0 && target < labels.length && labels[target] != 0) b.append("label:label").append(String.valueOf(labels[target] - 1));
+				}else {
+					b.append("0x").append(hex(at, size - 1));
+				}
+			}
+			b.append("\n");
+			loc += size;
+		}
+	}
+
+	private int instructionSize(int code, int loc) throws IOException {
+		int op = buf.get(code + loc) & 0xFF;
+		if(op >= OPERAND_LENGTHS.length) throw new IOException("Invalid opcode 0x" + Integer.toHexString(op));
+		if(OPERAND_LENGTHS[op] != -1) return 1 + OPERAND_LENGTHS[op];
+
+		int at = code + loc + 1 + switchPadding(loc);
+		long size;
+		switch(op) {
+			case OP_TABLESWITCH:
+				size = 1 + switchPadding(loc) + 12 + ((long) buf.getInt(at + 8) - buf.getInt(at + 4) + 1) * 4;
+				break;
+			case OP_LOOKUPSWITCH:
+				size = 1 + switchPadding(loc) + 8 + buf.getInt(at + 4) * 8L;
+				break;
+			case OP_WIDE:
+				size = (buf.get(code + loc + 1) & 0xFF) == OP_IINC ? 6 : 4;
+				break;
+			default:
+				throw new IllegalStateException();
+		}
+
+		if(size <= 0 || size > Integer.MAX_VALUE) throw new IOException("Invalid switch instruction");
+		return (int) size;
+	}
+
+	private static void mark(int[] labels, int target) {
+		if(target >= 0 && target < labels.length) labels[target] = -1;
+	}
+
+	private static int switchPadding(int loc) {
+		return (4 - (loc + 1) % 4) % 4;
+	}
+
+	private void formatStackMapTable(int indent, Appendable b) throws IOException {
+		int count = u2();
+		for(int i = 0; i < count; i++) {
+			int frameType = buf.get() & 0xFF;
+			StackMapFrameType type;
+			int offset;
+			if(frameType < 64) {
+				type = StackMapFrameType.SAME_FRAME;
+				offset = frameType;
+			}else if(frameType < 128) {
+				type = StackMapFrameType.SAME_LOCALS_1_STACK_ITEM_FRAME;
+				offset = frameType - 64;
+			}else if(frameType == 247) {
+				type = StackMapFrameType.SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED;
+				offset = u2();
+			}else if(frameType >= 248 && frameType < 251) {
+				type = StackMapFrameType.CHOP_FRAME;
+				offset = u2();
+			}else if(frameType == 251) {
+				type = StackMapFrameType.SAME_FRAME_EXTENDED;
+				offset = u2();
+			}else if(frameType > 251 && frameType < 255) {
+				type = StackMapFrameType.APPEND_FRAME;
+				offset = u2();
+			}else if(frameType == 255) {
+				type = StackMapFrameType.FULL_FRAME;
+				offset = u2();
+			}else {
+				throw new IOException("Invalid stack map frame type " + frameType);
+			}
+
+			b.append(ClassFileFormatter.indent(indent)).append(type.name().toLowerCase()).append(" {\n");
+			b.append(ClassFileFormatter.indent(indent + 1)).append("offset=").append(String.valueOf(offset)).append("\n");
+			switch(type) {
+				case APPEND_FRAME:
+				{
+					b.append(ClassFileFormatter.indent(indent + 1)).append("types {\n");
+					formatVerificationTypes(frameType - 251, indent + 2, b);
+					b.append(ClassFileFormatter.indent(indent + 1)).append("}\n");
+					break;
+				}
+				case CHOP_FRAME:
+				{
+					b.append(ClassFileFormatter.indent(indent + 1)).append("absent=").append(String.valueOf(251 - frameType)).append("\n");
+					break;
+				}
+				case FULL_FRAME:
+				{
+					b.append(ClassFileFormatter.indent(indent + 1)).append("locals {\n");
+					formatVerificationTypes(u2(), indent + 2, b);
+					b.append(ClassFileFormatter.indent(indent + 1)).append("}\n\n");
+
+					b.append(ClassFileFormatter.indent(indent + 1)).append("stack {\n");
+					formatVerificationTypes(u2(), indent + 2, b);
+					b.append(ClassFileFormatter.indent(indent + 1)).append("}\n");
+					break;
+				}
+				case SAME_LOCALS_1_STACK_ITEM_FRAME:
+				case SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED:
+				{
+					b.append(ClassFileFormatter.indent(indent + 2)).append("type=");
+					formatVerificationType(b);
+					b.append("\n");
+					break;
+				}
+				default:
+					break;
+			}
+			b.append(ClassFileFormatter.indent(indent)).append("}\n\n");
+		}
+	}
+
+	private void formatVerificationTypes(int count, int indent, Appendable b) throws IOException {
+		for(int i = 0; i < count; i++) {
+			b.append(ClassFileFormatter.indent(indent));
+			formatVerificationType(b);
+			b.append("\n");
+		}
+	}
+
+	private void formatVerificationType(Appendable b) throws IOException {
+		int tag = buf.get() & 0xFF;
+		if(tag >= VERIFICATION_TYPES.length) throw new IOException("Invalid verification type " + tag);
+		VerificationType type = VERIFICATION_TYPES[tag];
+		b.append(type.name().toLowerCase());
+		if(type == VerificationType.OBJECT) {
+			b.append(":").append(className(u2()));
+		}else if(type == VerificationType.UNINITIALIZED_VARIABLE) {
+			b.append(":0x").append(ByteUtils.bytesToHex(ClassFileUtils.getShortBytes(u2())));
+		}
+	}
+
+	private String entry(int index) throws IOException {
+		if(index <= 0 || index >= entries.length) throw new IOException("Invalid constant pool index " + index);
+		String entry = entries[index];
+		if(entry == null) {
+			StringBuilder b = new StringBuilder();
+			formatEntry(index, b);
+			entries[index] = entry = b.toString();
+		}
+		return entry;
+	}
+
+	private void formatEntry(int index, Appendable b) throws IOException {
+		int pos = checkEntry(index);
+		int tag = buf.get(pos) & 0xFF;
+		switch(tag) {
+			case TAG_METHOD_REF:
+				formatRef("method", pos, b);
+				break;
+			case TAG_INTERFACE_METHOD_REF:
+				formatRef("interfacemethod", pos, b);
+				break;
+			case TAG_FIELD_REF:
+				formatRef("field", pos, b);
+				break;
+			case TAG_CLASS:
+				b.append("class{").append(className(index)).append("}");
+				break;
+			case TAG_DOUBLE:
+				b.append("double{").append(String.valueOf(buf.getDouble(pos + 1))).append("}");
+				break;
+			case TAG_FLOAT:
+				b.append("float{").append(String.valueOf(buf.getFloat(pos + 1))).append("}");
+				break;
+			case TAG_INTEGER:
+				b.append("integer{").append(String.valueOf(buf.getInt(pos + 1))).append("}");
+				break;
+			case TAG_LONG:
+				b.append("long{").append(String.valueOf(buf.getLong(pos + 1))).append("}");
+				break;
+			case TAG_INVOKE_DYNAMIC:
+			{
+				int nameAndType = checkEntry(buf.getShort(pos + 3) & 0xFFFF);
+				b.append("invokedynamic{")
+					.append(String.valueOf(buf.getShort(pos + 1) & 0xFFFF)).append(":")
+					.append(utf8(buf.getShort(nameAndType + 1) & 0xFFFF)).append(":")
+					.append(utf8(buf.getShort(nameAndType + 3) & 0xFFFF))
+					.append("}");
+				break;
+			}
+			case TAG_METHOD_HANDLE:
+			{
+				// Reference kinds start at 1 and are declared in the same order
+				int kind = buf.get(pos + 1) & 0xFF;
+				if(kind == 0 || kind > ReferenceType.values().length) throw new IOException("Invalid method handle kind " + kind);
+				b.append("methodhandle{").append(ReferenceType.values()[kind - 1].name().toLowerCase()).append(":");
+				formatEntry(buf.getShort(pos + 2) & 0xFFFF, b);
+				b.append("}");
+				break;
+			}
+			case TAG_METHOD_TYPE:
+				b.append("methodtype{").append(utf8(buf.getShort(pos + 1) & 0xFFFF)).append("}");
+				break;
+			case TAG_NAME_AND_TYPE:
+				b.append("nameandtype{")
+					.append(utf8(buf.getShort(pos + 1) & 0xFFFF)).append(":")
+					.append(utf8(buf.getShort(pos + 3) & 0xFFFF))
+					.append("}");
+				break;
+			case TAG_STRING:
+				b.append("string{");
+				ClassFileFormatter.escape(utf8(buf.getShort(pos + 1) & 0xFFFF), b);
+				b.append("}");
+				break;
+			case TAG_UTF8:
+				b.append("utf8{");
+				ClassFileFormatter.escape(utf8(index), b);
+				b.append("}");
+				break;
+			default:
+				throw new IllegalArgumentException("Unsupported constant pool entry tag '" + tag + "'");
+		}
+	}
+
+	private void formatRef(String type, int pos, Appendable b) throws IOException {
+		int nameAndType = checkEntry(buf.getShort(pos + 3) & 0xFFFF);
+		b.append(type).append("{")
+			.append(className(buf.getShort(pos + 1) & 0xFFFF)).append(":")
+			.append(utf8(buf.getShort(nameAndType + 1) & 0xFFFF)).append(":")
+			.append(utf8(buf.getShort(nameAndType + 3) & 0xFFFF))
+			.append("}");
+	}
+
+	private String className(int index) throws IOException {
+		return utf8(buf.getShort(checkEntry(index) + 1) & 0xFFFF);
+	}
+
+	private String utf8(int index) throws IOException {
+		int pos = checkEntry(index);
+		String str = utf8[index];
+		if(str != null) return str;
+
+		if(buf.get(pos) != TAG_UTF8) throw new IOException("Constant pool entry " + index + " is not a UTF8 entry");
+		return utf8[index] = decodeUTF8(pos + 3, buf.getShort(pos + 1) & 0xFFFF);
+	}
+
+	private int checkEntry(int index) throws IOException {
+		if(index <= 0 || index >= pool.length || pool[index] == 0) throw new IOException("Invalid constant pool index " + index);
+		return pool[index];
+	}
+
+	// Class files use modified UTF-8, which differs from standard UTF-8 in how null and supplementary characters are encoded
+	private String decodeUTF8(int pos, int length) throws IOException {
+		char[] chars = new char[length];
+		int n = 0;
+		int end = pos + length;
+		while(pos < end) {
+			int c = buf.get(pos++) & 0xFF;
+			if(c < 0x80) {
+				chars[n++] = (char) c;
+			}else if((c & 0xE0) == 0xC0) {
+				chars[n++] = (char) (((c & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+			}else if((c & 0xF0) == 0xE0) {
+				chars[n++] = (char) (((c & 0x0F) << 12) | ((buf.get(pos++) & 0x3F) << 6) | (buf.get(pos++) & 0x3F));
+			}else {
+				throw new IOException("Invalid modified UTF-8");
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	private String hex(int pos, int length) {
+		byte[] bytes = new byte[length];
+		buf.duplicate().position(pos).get(bytes);
+		return ByteUtils.bytesToHex(bytes);
+	}
+
+	private static <E extends Enum<E>> void appendFlags(int flags, E[] values, ToLongFunction<E> value, Appendable b) throws IOException {
+		boolean first = true;
+		for(E f : values) {
+			if((flags & value.applyAsLong(f)) == 0) continue;
+			if(!first) b.append(",");
+			b.append(f.name().toLowerCase());
+			first = false;
+		}
+	}
+
+	private int u2() {
+		return buf.getShort() & 0xFFFF;
+	}
+
+	private void skip(int count) {
+		buf.position(buf.position() + count);
+	}
+
+}
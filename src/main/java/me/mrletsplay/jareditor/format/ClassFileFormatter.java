@@ -1,5 +1,6 @@
 package me.mrletsplay.jareditor.format;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
@@ -40,11 +41,48 @@ import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
 
 public class ClassFileFormatter {
 
+	public static final int FORMAT_VERSION = 2; // Must be changed whenever the output of formatClass changes
+
+	public static final String
+		FOLDED_PREFIX = "folded{",
+		FOLDED_CONSTANT_POOL = "constantpool",
+		FOLDED_CODE = "code";
+
+	private static final String[] INDENTS = new String[16];
+
+	static {
+		for(int i = 0; i < INDENTS.length; i++) INDENTS[i] = "\t".repeat(i);
+	}
+
 	public static String formatClass(ClassFile cf) {
 		StringBuilder b = new StringBuilder();
+		try {
+			formatClass(cf, b);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return b.toString();
+	}
+
+	public static void formatClass(ClassFile cf, Appendable b) throws IOException {
+		formatClass(cf, b, false);
+	}
+
+	// Folded output replaces the constant pool and method bodies with markers that the parser maps back to the original class
+	public static String formatClass(ClassFile cf, boolean fold) {
+		StringBuilder b = new StringBuilder();
+		try {
+			formatClass(cf, b, fold);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return b.toString();
+	}
 
-		b.append("major=").append(cf.getMajorVersion()).append("\n");
-		b.append("minor=").append(cf.getMinorVersion()).append("\n");
+	public static void formatClass(ClassFile cf, Appendable b, boolean fold) throws IOException {
+		FormattedConstantPool pool = new FormattedConstantPool(cf);
+		b.append("major=").append(String.valueOf(cf.getMajorVersion())).append("\n");
+		b.append("minor=").append(String.valueOf(cf.getMinorVersion())).append("\n");
 		b.append("name=").append(cf.getThisClass().getName().getValue()).append("\n");
 		b.append("superclass=").append(cf.getSuperClass().getName().getValue()).append("\n");
 		b.append("interfaces=").append(Arrays.stream(cf.getInterfaces())
@@ -54,81 +92,163 @@ public class ClassFileFormatter {
 			.map(f-> f.name().toLowerCase())
 			.collect(Collectors.joining(","))).append("\n\n");
 
+		FormatIndex.begin(b, FormatIndex.CONSTANT_POOL, "constantpool", -1);
 		b.append("constantpool {\n");
-		for(ConstantPoolEntry e : cf.getConstantPool().getEntries()) {
-			if(e == null) continue;
-			b.append(indent(1)).append(formatConstantPoolEntry(cf, e)).append("\n");
+		if(fold) {
+			int count = 0;
+			for(ConstantPoolEntry e : cf.getConstantPool().getEntries()) {
+				if(e != null) count++;
+			}
+			b.append(indent(1)).append(FOLDED_PREFIX).append(FOLDED_CONSTANT_POOL).append(":").append(String.valueOf(count)).append("}\n");
+		}else {
+			formatConstantPool(pool, 1, b);
+		}
+		b.append("}\n");
+		FormatIndex.end(b);
+		b.append("\n");
+
+		for(Attribute a : cf.getAttributes()) formatAttribute(pool, a, 0, -1, b);
+		ClassField[] fields = cf.getFields();
+		for(int i = 0; i < fields.length; i++) formatField(pool, fields[i], i, 0, b);
+		ClassMethod[] methods = cf.getMethods();
+		for(int i = 0; i < methods.length; i++) formatMethod(pool, methods[i], i, fold, 0, b);
+	}
+
+	private static void formatConstantPool(FormattedConstantPool pool, int indent, Appendable b) throws IOException {
+		ConstantPoolEntry[] entries = pool.getClassFile().getConstantPool().getEntries();
+		for(int i = 0; i < entries.length; i++) {
+			if(entries[i] == null) continue;
+			b.append(indent(indent)).append(pool.get(i + 1)).append("\n");
 		}
-		b.append("}\n\n");
+	}
+
+	// Returns the lines a fold marker stands for, or null if the line isn't a fold marker
+	public static String expandFolded(ClassFile cf, String line) {
+		String marker = line.strip();
+		if(!marker.startsWith(FOLDED_PREFIX) || !marker.endsWith("}")) return null;
+
+		int indent = 0;
+		while(line.charAt(indent) == '\t') indent++;
 
-		for(Attribute a : cf.getAttributes()) b.append(formatAttribute(cf, a, 0));
-		for(ClassField f : cf.getFields()) b.append(formatField(cf, f, 0));
-		for(ClassMethod m : cf.getMethods()) b.append(formatMethod(cf, m, 0));
+		String[] spl = marker.substring(FOLDED_PREFIX.length(), marker.length() - 1).split(":");
+		if(spl.length != 2) return null;
 
+		StringBuilder b = new StringBuilder();
+		FormattedConstantPool pool = new FormattedConstantPool(cf);
+		try {
+			switch(spl[0]) {
+				case FOLDED_CONSTANT_POOL:
+					formatConstantPool(pool, indent, b);
+					break;
+				case FOLDED_CODE:
+				{
+					AttributeCode code = getFoldedCode(cf, spl[1]);
+					if(code == null) return null;
+					ByteCodeFormatter.formatByteCode(pool, code.getCode(), ByteCodeFormatter.getExceptionHandlers(code), indent, b);
+					break;
+				}
+				default:
+					return null;
+			}
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		if(b.length() > 0 && b.charAt(b.length() - 1) == '\n') b.setLength(b.length() - 1);
 		return b.toString();
 	}
 
-	private static CharSequence formatField(ClassFile cf, ClassField field, int indent) {
+	static String formatAttribute(ClassFile cf, Attribute attr) {
 		StringBuilder b = new StringBuilder();
+		try {
+			formatAttribute(new FormattedConstantPool(cf), attr, 0, -1, b);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return b.toString();
+	}
+
+	static AttributeCode getFoldedCode(ClassFile cf, String methodIndex) {
+		int index;
+		try {
+			index = Integer.parseInt(methodIndex);
+		}catch(NumberFormatException e) {
+			return null;
+		}
+
+		ClassMethod[] methods = cf.getMethods();
+		if(index < 0 || index >= methods.length) return null;
+		for(Attribute a : methods[index].getAttributes()) {
+			if(a instanceof AttributeCode) return (AttributeCode) a;
+		}
+		return null;
+	}
+
+	private static void formatField(FormattedConstantPool pool, ClassField field, int fieldIndex, int indent, Appendable b) throws IOException {
+		FormatIndex.begin(b, FormatIndex.FIELD, field.getName().getValue(), fieldIndex);
 		b.append(indent(indent)).append("field ").append(field.getName().getValue()).append(" {\n");
 		b.append(indent(indent + 1)).append("descriptor=").append(field.getDescriptor().getValue()).append("\n");
 		b.append(indent(indent + 1)).append("flags=").append(field.getAccessFlags().getApplicable().stream()
 			.map(f -> f.name().toLowerCase())
 			.collect(Collectors.joining(","))).append("\n");
 		if(field.getAttributes().length != 0) b.append("\n");
-		for(Attribute a : field.getAttributes()) b.append(formatAttribute(cf, a, indent + 1));
-		b.append(indent(indent)).append("}\n\n");
-		return b;
+		for(Attribute a : field.getAttributes()) formatAttribute(pool, a, indent + 1, -1, b);
+		b.append(indent(indent)).append("}\n");
+		FormatIndex.end(b);
+		b.append("\n");
 	}
 
-	private static CharSequence formatMethod(ClassFile cf, ClassMethod method, int indent) {
-		StringBuilder b = new StringBuilder();
+	private static void formatMethod(FormattedConstantPool pool, ClassMethod method, int methodIndex, boolean fold, int indent, Appendable b) throws IOException {
+		FormatIndex.begin(b, FormatIndex.METHOD, method.getName().getValue(), methodIndex);
 		b.append(indent(indent)).append("method ").append(method.getName().getValue()).append(" {\n");
 		b.append(indent(indent + 1)).append("descriptor=").append(method.getDescriptor().getValue()).append("\n");
 		b.append(indent(indent + 1)).append("flags=").append(method.getAccessFlags().getApplicable().stream()
 			.map(f-> f.name().toLowerCase())
 			.collect(Collectors.joining(","))).append("\n");
 		if(method.getAttributes().length != 0) b.append("\n");
-		for(Attribute a : method.getAttributes()) b.append(formatAttribute(cf, a, indent + 1));
-		b.append(indent(indent)).append("}\n\n");
-		return b;
+		for(Attribute a : method.getAttributes()) formatAttribute(pool, a, indent + 1, fold ? methodIndex : -1, b);
+		b.append(indent(indent)).append("}\n");
+		FormatIndex.end(b);
+		b.append("\n");
 	}
 
-	private static CharSequence formatAttribute(ClassFile cf, Attribute attr, int indent) {
-		StringBuilder b = new StringBuilder();
+	private static void formatAttribute(FormattedConstantPool pool, Attribute attr, int indent, int foldIndex, Appendable b) throws IOException {
+		FormatIndex.begin(b, FormatIndex.ATTRIBUTE, attr.getNameString(), -1);
 		b.append(indent(indent)).append("attribute ").append(attr.getNameString()).append(" {\n");
 
 		if(attr instanceof AttributeCode) {
 			AttributeCode c = (AttributeCode) attr;
-			b.append(indent(indent + 1)).append("locals=").append(c.getMaxLocals()).append("\n");
-			b.append(indent(indent + 1)).append("stack=").append(c.getMaxStack()).append("\n\n");
+			b.append(indent(indent + 1)).append("locals=").append(String.valueOf(c.getMaxLocals())).append("\n");
+			b.append(indent(indent + 1)).append("stack=").append(String.valueOf(c.getMaxStack())).append("\n\n");
 			// TODO: exception table
 		}
 
-		b.append(formatAttributeInfo(cf, attr, indent + 1));
+		formatAttributeInfo(pool, attr, indent + 1, foldIndex, b);
 
 		if(!(attr instanceof AttributeRaw) && attr.getAttributes().length != 0) {
 			b.append("\n");
-			for(Attribute a : attr.getAttributes()) b.append(formatAttribute(cf, a, indent + 1));
+			for(Attribute a : attr.getAttributes()) formatAttribute(pool, a, indent + 1, -1, b);
 		}
 
-		b.append(indent(indent)).append("}\n\n");
-		return b;
+		b.append(indent(indent)).append("}\n");
+		FormatIndex.end(b);
+		b.append("\n");
 	}
 
-	private static CharSequence formatAttributeInfo(ClassFile cf, Attribute attr, int indent) {
-		StringBuilder b = new StringBuilder();
+	private static void formatAttributeInfo(FormattedConstantPool pool, Attribute attr, int indent, int foldIndex, Appendable b) throws IOException {
 		b.append(indent(indent)).append("info {\n");
-		if(attr instanceof AttributeCode) {
+		if(attr instanceof AttributeCode && foldIndex != -1) {
+			b.append(indent(indent + 1)).append(FOLDED_PREFIX).append(FOLDED_CODE).append(":").append(String.valueOf(foldIndex)).append("}\n");
+		}else if(attr instanceof AttributeCode) {
 			AttributeCode code = (AttributeCode) attr;
 			ByteCode bc = code.getCode();
-			b.append(ByteCodeFormatter.formatByteCode(cf, bc, indent + 1));
+			ByteCodeFormatter.formatByteCode(pool, bc, ByteCodeFormatter.getExceptionHandlers(code), indent + 1, b);
 		}else if(attr instanceof AttributeStackMapTable) {
 			AttributeStackMapTable smt = (AttributeStackMapTable) attr;
 
 			for(StackMapFrame f : smt.getEntries()) {
 				b.append(indent(indent + 1)).append(f.getType().name().toLowerCase()).append(" {\n");
-				b.append(indent(indent + 2)).append("offset=").append(f.getOffsetDelta()).append("\n");
+				b.append(indent(indent + 2)).append("offset=").append(String.valueOf(f.getOffsetDelta())).append("\n");
 				switch(f.getType()) {
 					case APPEND_FRAME:
 					{
@@ -136,7 +256,7 @@ public class ClassFileFormatter {
 						b.append(indent(indent + 2)).append("types {\n");
 
 						for(VerificationTypeInfo i : fr.getAdditionalTypeInfo()) {
-							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(cf, i)).append("\n");
+							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(i)).append("\n");
 						}
 
 						b.append(indent(indent + 2)).append("}\n");
@@ -145,7 +265,7 @@ public class ClassFileFormatter {
 					case CHOP_FRAME:
 					{
 						StackMapChopFrame fr = (StackMapChopFrame) f;
-						b.append(indent(indent + 2)).append("absent=").append(fr.getNumAbsentLocals()).append("\n");
+						b.append(indent(indent + 2)).append("absent=").append(String.valueOf(fr.getNumAbsentLocals())).append("\n");
 						break;
 					}
 					case FULL_FRAME:
@@ -153,13 +273,13 @@ public class ClassFileFormatter {
 						StackMapFullFrame fr = (StackMapFullFrame) f;
 						b.append(indent(indent + 2)).append("locals {\n");
 						for(VerificationTypeInfo i : fr.getLocals()) {
-							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(cf, i)).append("\n");
+							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(i)).append("\n");
 						}
 						b.append(indent(indent + 2)).append("}\n\n");
 
 						b.append(indent(indent + 2)).append("stack {\n");
 						for(VerificationTypeInfo i : fr.getStack()) {
-							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(cf, i)).append("\n");
+							b.append(indent(indent + 3)).append(formatVerificationTypeInfo(i)).append("\n");
 						}
 						b.append(indent(indent + 2)).append("}\n");
 						break;
@@ -167,13 +287,13 @@ public class ClassFileFormatter {
 					case SAME_LOCALS_1_STACK_ITEM_FRAME:
 					{
 						StackMapSameLocals1StackItemFrame fr = (StackMapSameLocals1StackItemFrame) f;
-						b.append(indent(indent + 3)).append("type=").append(formatVerificationTypeInfo(cf, fr.getTypeInfo())).append("\n");
+						b.append(indent(indent + 3)).append("type=").append(formatVerificationTypeInfo(fr.getTypeInfo())).append("\n");
 						break;
 					}
 					case SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED:
 					{
 						StackMapSameLocals1StackItemFrameExtended fr = (StackMapSameLocals1StackItemFrameExtended) f;
-						b.append(indent(indent + 3)).append("type=").append(formatVerificationTypeInfo(cf, fr.getTypeInfo())).append("\n");
+						b.append(indent(indent + 3)).append("type=").append(formatVerificationTypeInfo(fr.getTypeInfo())).append("\n");
 						break;
 					}
 					case SAME_FRAME:
@@ -187,10 +307,9 @@ public class ClassFileFormatter {
 			b.append(indent(indent + 1)).append("0x" + ByteUtils.bytesToHex(attr.getInfo())).append("\n");
 		}
 		b.append(indent(indent)).append("}\n");
-		return b;
 	}
 
-	private static String formatVerificationTypeInfo(ClassFile cf, VerificationTypeInfo inf) {
+	private static String formatVerificationTypeInfo(VerificationTypeInfo inf) {
 		switch(inf.getType()) {
 			case DOUBLE:
 			case FLOAT:
@@ -217,6 +336,15 @@ public class ClassFileFormatter {
 
 	public static CharSequence formatConstantPoolEntry(ClassFile cf, ConstantPoolEntry entry) {
 		StringBuilder b = new StringBuilder();
+		try {
+			formatConstantPoolEntry(cf, entry, b);
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+		return b;
+	}
+
+	public static void formatConstantPoolEntry(ClassFile cf, ConstantPoolEntry entry, Appendable b) throws IOException {
 		switch(entry.getTag()) {
 			case METHOD_REF:
 			{
@@ -260,7 +388,7 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolDoubleEntry e = (ConstantPoolDoubleEntry) entry;
 				b.append("double{")
-					.append(e.getValue())
+					.append(String.valueOf(e.getValue()))
 					.append("}");
 				break;
 			}
@@ -268,7 +396,7 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolFloatEntry e = (ConstantPoolFloatEntry) entry;
 				b.append("float{")
-					.append(e.getValue())
+					.append(String.valueOf(e.getValue()))
 					.append("}");
 				break;
 			}
@@ -276,7 +404,7 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolIntegerEntry e = (ConstantPoolIntegerEntry) entry;
 				b.append("integer{")
-					.append(e.getValue())
+					.append(String.valueOf(e.getValue()))
 					.append("}");
 				break;
 			}
@@ -284,7 +412,7 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolInvokeDynamicEntry e = (ConstantPoolInvokeDynamicEntry) entry;
 				b.append("invokedynamic{")
-					.append(e.getBootstrapMethodAttributeIndex()).append(":")
+					.append(String.valueOf(e.getBootstrapMethodAttributeIndex())).append(":")
 					.append(e.getNameAndType().getName().getValue()).append(":")
 					.append(e.getNameAndType().getDescriptor().getValue())
 					.append("}");
@@ -294,7 +422,7 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolLongEntry e = (ConstantPoolLongEntry) entry;
 				b.append("long{")
-					.append(e.getValue())
+					.append(String.valueOf(e.getValue()))
 					.append("}");
 				break;
 			}
@@ -302,9 +430,9 @@ public class ClassFileFormatter {
 			{
 				ConstantPoolMethodHandleEntry e = (ConstantPoolMethodHandleEntry) entry;
 				b.append("methodhandle{")
-					.append(e.getReferenceType().name().toLowerCase()).append(":")
-					.append(formatConstantPoolEntry(cf, e.getReference()))
-					.append("}");
+					.append(e.getReferenceType().name().toLowerCase()).append(":");
+				formatConstantPoolEntry(cf, e.getReference(), b);
+				b.append("}");
 				break;
 			}
 			case METHOD_TYPE:
@@ -327,46 +455,38 @@ public class ClassFileFormatter {
 			case STRING:
 			{
 				ConstantPoolStringEntry e = (ConstantPoolStringEntry) entry;
-				b.append("string{")
-					.append(escape(e.getString().getValue()))
-					.append("}");
+				b.append("string{");
+				escape(e.getString().getValue(), b);
+				b.append("}");
 				break;
 			}
 			case UTF_8:
 			{
 				ConstantPoolUTF8Entry e = (ConstantPoolUTF8Entry) entry;
-				b.append("utf8{")
-					.append(escape(e.getValue()))
-					.append("}");
+				b.append("utf8{");
+				escape(e.getValue(), b);
+				b.append("}");
 				break;
 			}
 			default:
 				throw new IllegalArgumentException("Unsupported constant pool entry tag '" + entry.getTag() + "'");
 		}
-		return b;
 	}
 
-	private static CharSequence escape(char c) {
-		switch(c) {
-			case '{':
-				return "\\{";
-			case '}':
-				return "\\}";
-			default:
-				return String.valueOf(c);
+	static void escape(String str, Appendable out) throws IOException {
+		int start = 0;
+		for(int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if(c != '{' && c != '}') continue;
+			out.append(str, start, i).append('\\').append(c);
+			start = i + 1;
 		}
+		out.append(str, start, str.length());
 	}
 
-	private static CharSequence escape(String str) {
-		StringBuilder escaped = new StringBuilder();
-		for(char c : str.toCharArray()) escaped.append(escape(c));
-		return escaped;
-	}
-
-	private static CharSequence indent(int n) {
-		StringBuilder b = new StringBuilder();
-		while(n-- > 0) b.append("\t");
-		return b;
+	static String indent(int n) {
+		if(n < INDENTS.length) return INDENTS[n];
+		return "\t".repeat(n);
 	}
 
 }
@@ -3,22 +3,28 @@ package me.mrletsplay.jareditor.format;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
+import me.mrletsplay.jareditor.format.ByteCodeParser.ParsedByteCode;
 import me.mrletsplay.jareditor.format.entity.ParserAttribute;
+import me.mrletsplay.jareditor.format.entity.ParserConstantPoolEntry;
 import me.mrletsplay.jareditor.format.entity.ParserField;
 import me.mrletsplay.jareditor.format.entity.ParserMethod;
 import me.mrletsplay.jareditor.format.string.FullParseString;
 import me.mrletsplay.jareditor.format.string.ParseString;
+import me.mrletsplay.jareditor.format.string.StringView;
 import me.mrletsplay.mrcore.misc.ByteUtils;
 import me.mrletsplay.mrcore.misc.EnumFlagCompound;
 import me.mrletsplay.mrcore.misc.FriendlyException;
 import me.mrletsplay.mrcore.misc.Result;
+import me.mrletsplay.mrcore.misc.classfile.ByteCode;
 import me.mrletsplay.mrcore.misc.classfile.ClassAccessFlag;
 import me.mrletsplay.mrcore.misc.classfile.ClassField;
 import me.mrletsplay.mrcore.misc.classfile.ClassFile;
@@ -44,11 +50,20 @@ import me.mrletsplay.mrcore.misc.classfile.attribute.stackmap.verification.Verif
 import me.mrletsplay.mrcore.misc.classfile.attribute.stackmap.verification.VerificationTypeInfo;
 import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolClassEntry;
 import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolEntry;
-import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
 
 public class ClassFileParser {
 
+	private static final Set<String> CONSTANT_POOL_TAGS = Set.of("class", "field", "method", "interfacemethod", "utf8", "string", "integer", "float", "long", "nameandtype");
+
+	// Classes with at least this many methods read their method bodies in parallel
+	private static final int PARALLEL_CODE_THRESHOLD = 128;
+
 	public static Result<ClassFile, ParseError> parse(ClassFile original, String str) {
+		return parse(original, str, null);
+	}
+
+	// Blocks that are unchanged according to the hashes are copied from the original class instead of being parsed again
+	public static Result<ClassFile, ParseError> parse(ClassFile original, String str, MemberHashes hashes) {
 		// Copy old ClassFile
 		ByteArrayOutputStream bOut = new ByteArrayOutputStream();
 		ClassFile cf = null;
@@ -59,63 +74,100 @@ public class ClassFileParser {
 			throw new IllegalStateException("This should never happen", ignored);
 		}
 
+		return parseInto(cf, str, hashes);
+	}
+
+	// Like parse, but modifies cf instead of a copy of it. For callers that don't need the original class afterwards, cf is left in an undefined state if parsing fails
+	public static Result<ClassFile, ParseError> parseInto(ClassFile cf, String str, MemberHashes hashes) {
+		return parseInto(cf, str, hashes, null);
+	}
+
+	// With diagnostics, parsing continues after an invalid block or instruction and every error is added to them. The first error is still returned
+	public static Result<ClassFile, ParseError> parseInto(ClassFile cf, String str, MemberHashes hashes, ParseDiagnostics diagnostics) {
+		var result = parseClass(cf, str, hashes, diagnostics);
+		if(diagnostics == null) return result;
+		if(result.isErr()) diagnostics.add(result.getErr());
+		return diagnostics.hasErrors() ? Result.err(diagnostics.getErrors().get(0)) : result;
+	}
+
+	private static Result<ClassFile, ParseError> parseClass(ClassFile cf, String str, MemberHashes hashes, ParseDiagnostics diagnostics) {
+		Attribute[] originalAttributes = cf.getAttributes();
+		ClassField[] originalFields = cf.getFields();
+		ClassMethod[] originalMethods = cf.getMethods();
+
+		ConstantPoolBuilder pool = new ConstantPoolBuilder(cf);
 		ParseString parse = new FullParseString(str);
+		TokenStream tokens = TokenStream.lex(str);
 
+		// Folded method bodies and unchanged members are copied from the original class, which is only valid if the indices they reference are unchanged
+		boolean foldedCode = str.contains(ClassFileFormatter.FOLDED_PREFIX + ClassFileFormatter.FOLDED_CODE);
 		boolean hasConstantPool = false;
+		boolean foldedConstantPool = false;
+		String[] originalPool = null;
 		Map<String, String> properties = new HashMap<>();
 		List<ParserAttribute> attributes = new ArrayList<>();
 		List<ParserField> fields = new ArrayList<>();
 		List<ParserMethod> methods = new ArrayList<>();
-		while(true) {
-			var pair = readPair(parse);
-			if(!pair.isErr()) {
-				var kv = pair.value();
-				properties.put(kv.getKey(), kv.getValue());
-				continue;
-			}
-
-			parse.stripLeading();
-			if(parse.end()) break;
-			String token = parse.nextToken();
-			if(token == null) return Result.err(new ParseError("Unexpected end of input", parse.mark()));
-			switch(token) {
-				case "constantpool":
-				{
-					cf.getConstantPool().clear();
-					var cp = readConstantPool(cf, parse);
-					if(cp.isErr()) return cp.up();
-					if(hasConstantPool) return Result.err(new ParseError("Duplicate constant pool", parse.mark()));
-					hasConstantPool = true;
+		List<Integer> unchangedAttributes = new ArrayList<>(), unchangedFields = new ArrayList<>(), unchangedMethods = new ArrayList<>(); // Original index or -1, per parsed block
+		boolean anyUnchanged = false;
+		int t;
+		while((t = tokens.next()) != -1) {
+			if(readPair(tokens, t, properties)) continue;
+
+			// Unchanged blocks are still read, so they can be created from text if the constant pool turns out to be incompatible
+			int unchanged = findUnchanged(hashes, cf, str, tokens, t);
+			if(unchanged != -1) anyUnchanged = true;
+
+			if(tokens.is(t, "constantpool")) {
+				if(hasConstantPool) {
+					ParseError err = new ParseError("Duplicate constant pool", tokens.getStart(t));
+					if(!recover(diagnostics, err, tokens, t)) return Result.err(err);
 					continue;
 				}
-				case "attribute":
-				{
-					var attr = readAttribute(parse);
-					if(attr.isErr()) return attr.up();
-					attributes.add(attr.value());
+
+				var cp = readConstantPool(pool, parse, tokens, foldedCode || hashes != null);
+				if(cp.isErr()) {
+					if(!recover(diagnostics, cp.getErr(), tokens, t)) return cp.up();
 					continue;
 				}
-				case "field":
-				{
-					var field = readField(parse);
-					if(field.isErr()) return field.up();
-					fields.add(field.value());
+				hasConstantPool = true;
+				originalPool = cp.value();
+				foldedConstantPool = originalPool == null;
+			}else if(tokens.is(t, "attribute")) {
+				var attr = readAttribute(parse, tokens);
+				if(attr.isErr()) {
+					if(!recover(diagnostics, attr.getErr(), tokens, t)) return attr.up();
 					continue;
 				}
-				case "method":
-				{
-					var method = readMethod(parse);
-					if(method.isErr()) return method.up();
-					methods.add(method.value());
+				attributes.add(attr.value());
+				unchangedAttributes.add(unchanged);
+			}else if(tokens.is(t, "field")) {
+				var field = readField(parse, tokens);
+				if(field.isErr()) {
+					if(!recover(diagnostics, field.getErr(), tokens, t)) return field.up();
 					continue;
 				}
-				default:
-				{
-					return Result.err(new ParseError("Unexpected token '" + token + "'", parse.mark()));
+				fields.add(field.value());
+				unchangedFields.add(unchanged);
+			}else if(tokens.is(t, "method")) {
+				var method = readMethod(parse, tokens);
+				if(method.isErr()) {
+					if(!recover(diagnostics, method.getErr(), tokens, t)) return method.up();
+					continue;
 				}
+				methods.add(method.value());
+				unchangedMethods.add(unchanged);
+			}else {
+				ParseError err = new ParseError("Unexpected token '" + tokens.string(t) + "'", tokens.getStart(t));
+				if(!recover(diagnostics, err, tokens, t)) return Result.err(err);
 			}
 		}
 
+		pool.build(); // The new pool is compared to the original one
+		boolean keepIndices = !hasConstantPool || foldedConstantPool
+			|| ((foldedCode || anyUnchanged) && isConstantPoolCompatible(originalPool, cf));
+		boolean keepCode = keepIndices || !foldedCode;
+
 		String major = properties.get("major");
 		if(major == null) return Result.err(new ParseError("Missing major version", 0));
 		String minor = properties.get("minor");
@@ -143,50 +195,84 @@ public class ClassFileParser {
 
 		String name = properties.get("name");
 		if(name == null) return Result.err(new ParseError("Missing name", 0));
-		cf.setThisClass(ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, name)));
+		cf.setThisClass(pool.getOrAppendClass(name));
 
 		String superclass = properties.get("superclass");
 		if(superclass == null) return Result.err(new ParseError("Missing superclass", 0));
 		String interfaces = properties.get("interfaces");
 		if(interfaces == null) return Result.err(new ParseError("Missing interfaces", 0));
 
-		cf.setSuperClass(ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, superclass)));
+		cf.setSuperClass(pool.getOrAppendClass(superclass));
 		List<ConstantPoolClassEntry> ifs = new ArrayList<>();
 		if(!interfaces.isEmpty()) {
 			for(String s : interfaces.split(",")) {
-				ifs.add((ConstantPoolClassEntry) cf.getConstantPool().getEntry(ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, s))));
+				ifs.add((ConstantPoolClassEntry) pool.getEntry(pool.getOrAppendClass(s)));
 			}
 		}
 		cf.setInterfaces(ifs.toArray(ConstantPoolClassEntry[]::new));
 
 		List<Attribute> attrs = new ArrayList<>();
-		for(ParserAttribute a : attributes) {
-			var at = createAttribute(cf, a);
-			if(at.isErr()) return at.up();
+		for(int i = 0; i < attributes.size(); i++) {
+			int unchanged = unchangedAttributes.get(i);
+			if(unchanged != -1 && keepIndices) {
+				attrs.add(originalAttributes[unchanged]);
+				continue;
+			}
+
+			var at = createAttribute(pool, tokens, attributes.get(i), keepCode, null);
+			if(at.isErr()) {
+				if(diagnostics == null) return at.up();
+				diagnostics.add(at.getErr());
+				continue;
+			}
 			attrs.add(at.value());
 		}
 		cf.setAttributes(attrs.toArray(Attribute[]::new));
 
+		Map<ParserAttribute, Result<ParsedByteCode, ParseError>> parsedCode = null;
+		if(diagnostics != null || methods.size() >= PARALLEL_CODE_THRESHOLD) parsedCode = readCode(pool, methods, unchangedMethods, keepIndices, diagnostics);
+
 		List<ClassMethod> mths = new ArrayList<>();
-		for(ParserMethod m : methods) {
-			var mth = createMethod(cf, m);
-			if(mth.isErr()) return mth.up();
+		for(int i = 0; i < methods.size(); i++) {
+			int unchanged = unchangedMethods.get(i);
+			if(unchanged != -1 && keepIndices) {
+				mths.add(originalMethods[unchanged]);
+				continue;
+			}
+
+			var mth = createMethod(pool, tokens, methods.get(i), keepCode, parsedCode);
+			if(mth.isErr()) {
+				if(diagnostics == null) return mth.up();
+				diagnostics.add(mth.getErr());
+				continue;
+			}
 			mths.add(mth.value());
 		}
 		cf.setMethods(mths.toArray(ClassMethod[]::new));
 
 		List<ClassField> fs = new ArrayList<>();
-		for(ParserField m : fields) {
-			var fl = createField(cf, m);
-			if(fl.isErr()) return fl.up();
+		for(int i = 0; i < fields.size(); i++) {
+			int unchanged = unchangedFields.get(i);
+			if(unchanged != -1 && keepIndices) {
+				fs.add(originalFields[unchanged]);
+				continue;
+			}
+
+			var fl = createField(pool, tokens, fields.get(i), keepCode);
+			if(fl.isErr()) {
+				if(diagnostics == null) return fl.up();
+				diagnostics.add(fl.getErr());
+				continue;
+			}
 			fs.add(fl.value());
 		}
 		cf.setFields(fs.toArray(ClassField[]::new));
 
+		pool.build();
 		return Result.of(cf);
 	}
 
-	private static Result<ClassMethod, ParseError> createMethod(ClassFile cf, ParserMethod method) {
+	private static Result<ClassMethod, ParseError> createMethod(ConstantPoolBuilder pool, TokenStream tokens, ParserMethod method, boolean keepCode, Map<ParserAttribute, Result<ParsedByteCode, ParseError>> parsedCode) {
 		EnumFlagCompound<MethodAccessFlag> flags = EnumFlagCompound.noneOf(MethodAccessFlag.class);
 		String fStr = method.getProperties().get("flags");
 		if(fStr == null) return Result.err(new ParseError("Missing method access flags", method.getIndex()));
@@ -204,20 +290,20 @@ public class ClassFileParser {
 
 		List<Attribute> mAttrs = new ArrayList<>();
 		for(ParserAttribute a : method.getAttributes()) {
-			var at = createAttribute(cf, a);
+			var at = createAttribute(pool, tokens, a, keepCode, parsedCode);
 			if(at.isErr()) return at.up();
 			mAttrs.add(at.value());
 		}
 
-		ClassMethod cm = new ClassMethod(cf,
+		ClassMethod cm = new ClassMethod(pool.getClassFile(),
 			(int) flags.getCompound(),
-			ClassFileUtils.getOrAppendUTF8(cf, method.getName()),
-			ClassFileUtils.getOrAppendUTF8(cf, desc),
+			pool.getOrAppendUTF8(method.getName()),
+			pool.getOrAppendUTF8(desc),
 			mAttrs.toArray(Attribute[]::new));
 		return Result.of(cm);
 	}
 
-	private static Result<ClassField, ParseError> createField(ClassFile cf, ParserField field) {
+	private static Result<ClassField, ParseError> createField(ConstantPoolBuilder pool, TokenStream tokens, ParserField field, boolean keepCode) {
 		EnumFlagCompound<MethodAccessFlag> flags = EnumFlagCompound.noneOf(MethodAccessFlag.class);
 		String fStr = field.getProperties().get("flags");
 		if(fStr == null) return Result.err(new ParseError("Missing field access flags", field.getIndex()));
@@ -235,24 +321,27 @@ public class ClassFileParser {
 
 		List<Attribute> fAttrs = new ArrayList<>();
 		for(ParserAttribute a : field.getAttributes()) {
-			var at = createAttribute(cf, a);
+			var at = createAttribute(pool, tokens, a, keepCode, null);
 			if(at.isErr()) return at.up();
 			fAttrs.add(at.value());
 		}
 
-		ClassField f = new ClassField(cf,
+		ClassField f = new ClassField(pool.getClassFile(),
 			(int) flags.getCompound(),
-			ClassFileUtils.getOrAppendUTF8(cf, field.getName()),
-			ClassFileUtils.getOrAppendUTF8(cf, desc),
+			pool.getOrAppendUTF8(field.getName()),
+			pool.getOrAppendUTF8(desc),
 			fAttrs.toArray(Attribute[]::new));
 		return Result.of(f);
 	}
 
-	private static Result<Attribute, ParseError> createAttribute(ClassFile cf, ParserAttribute attr) {
+	// parsedCode holds method bodies that were already read, may be null
+	private static Result<Attribute, ParseError> createAttribute(ConstantPoolBuilder pool, TokenStream tokens, ParserAttribute attr, boolean keepCode, Map<ParserAttribute, Result<ParsedByteCode, ParseError>> parsedCode) {
+		ClassFile cf = pool.getClassFile();
 		ParseString str = attr.getInfo();
 		int m = str.mark();
 		str.stripLeading();
 		Attribute a = null;
+		boolean replaceAttributes = false; // The attribute may already have child attributes
 		if(str.expect("0x")) {
 			String tok = attr.getInfo().nextToken();
 			if(!str.stripLeading().end()) {
@@ -260,7 +349,7 @@ public class ClassFileParser {
 				return Result.err(new ParseError("Extra content", str.mark()));
 			}
 			a = new AttributeRaw(cf,
-				ClassFileUtils.getOrAppendUTF8(cf, attr.getName()),
+				pool.getOrAppendUTF8(attr.getName()),
 				ByteUtils.hexToBytes(tok));
 		}
 
@@ -269,11 +358,29 @@ public class ClassFileParser {
 				switch(attr.getName()) {
 					case "Code":
 					{
-						AttributeCode code = new AttributeCode(cf);
-						var c = ByteCodeParser.parse(cf, str);
-						if(c.isErr()) {
-							str.reset(m);
-							return c.up();
+						AttributeCode code;
+						ByteCode byteCode = null;
+						String folded = readFoldMarker(str, ClassFileFormatter.FOLDED_CODE);
+						if(folded != null) {
+							if(!keepCode) {
+								str.reset(m);
+								return Result.err(new ParseError("Folded method bodies can't be kept after changing the constant pool, expand them first", m));
+							}
+
+							code = ClassFileFormatter.getFoldedCode(cf, folded);
+							if(code == null) {
+								str.reset(m);
+								return Result.err(new ParseError("Invalid folded method body", m));
+							}
+						}else {
+							code = new AttributeCode(cf);
+							var c = parsedCode == null ? null : parsedCode.get(attr);
+							if(c == null) c = ByteCodeParser.read(str);
+							if(c.isErr()) {
+								str.reset(m);
+								return c.up();
+							}
+							byteCode = ByteCodeParser.assemble(pool, c.value());
 						}
 
 						String locals = attr.getProperties().get("locals");
@@ -288,189 +395,38 @@ public class ClassFileParser {
 							return Result.err(new ParseError("Missing stack attribute", m));
 						}
 
+						int maxLocals, maxStack;
 						try {
-							code.setMaxLocals(Integer.parseInt(locals));
-							code.setMaxStack(Integer.parseInt(stack));
+							maxLocals = Integer.parseInt(locals);
+							maxStack = Integer.parseInt(stack);
 						}catch(NumberFormatException e) {
 							str.reset(m);
 							return Result.err(new ParseError("Invalid number", m));
 						}
 
-						code.getCode().replace(c.value());
+						if(folded != null) {
+							// The exception table isn't part of the text, so a folded body keeps the original attribute instead of copying its code into a new one
+							if(code.getMaxLocals() == maxLocals && code.getMaxStack() == maxStack && isUnchanged(cf, code.getAttributes(), attr.getAttributes())) return Result.of(code);
+							replaceAttributes = true;
+						}else {
+							code.getCode().replace(byteCode);
+						}
+
+						code.setMaxLocals(maxLocals);
+						code.setMaxStack(maxStack);
 						a = code;
 						break;
 					}
 					case "StackMapTable":
 					{
 						AttributeStackMapTable smt = new AttributeStackMapTable(cf);
-						List<StackMapFrame> frames = new ArrayList<>();
-
-						while(!str.stripLeading().end()) {
-							String type = str.nextToken();
-							if(str.end()) {
-								str.reset(m);
-								return Result.err(new ParseError("Unexpected end of input", m));
-							}
-
-							Result<ParseString, ParseError> block = readBlock(str);
-							if(block.isErr()) return block.up();
-
-							ParseString blk = block.value();
-
-							Map<String, String> properties = new HashMap<>();
-							Map<String, ParseString> blocks = new HashMap<>();
-
-							while(true) {
-								var pair = readPair(blk);
-								if(!pair.isErr()) {
-									var kv = pair.value();
-									properties.put(kv.getKey(), kv.getValue());
-									continue;
-								}
-
-								blk.stripLeading();
-								if(blk.end()) break;
-								String token = blk.nextToken();
-								if(token == null) {
-									str.reset(m);
-									return Result.err(new ParseError("Unexpected end of input", blk.mark()));
-								}
-
-								var subBlk = readBlock(blk);
-								if(subBlk.isErr()) {
-									str.reset(m);
-									return Result.err(new ParseError("Unexpected end of input", blk.mark()));
-								}
-
-								blocks.put(token, subBlk.value());
-							}
-
-							StackMapFrameType frameType;
-							try {
-								frameType = StackMapFrameType.valueOf(type.toUpperCase());
-							}catch(IllegalArgumentException e) {
-								str.reset(m);
-								return Result.err(new ParseError("Invalid stack map frame type", blk.mark()));
-							}
-
-							if(!properties.containsKey("offset")) {
-								str.reset(m);
-								return Result.err(new ParseError("No offset property", attr.getInfo().mark()));
-							}
-
-							int offset;
-							try {
-								offset = Integer.parseInt(properties.get("offset"));
-							}catch(NumberFormatException e) {
-								str.reset(m);
-								return Result.err(new ParseError("Invalid stack map frame offset", blk.mark()));
-							}
-
-							switch(frameType) {
-								case APPEND_FRAME:
-								{
-									if(!blocks.containsKey("types")) {
-										str.reset(m);
-										return Result.err(new ParseError("No types block", attr.getInfo().mark()));
-									}
-
-									ParseString typesBlock = blocks.get("types");
-									var types = readTypes(cf, typesBlock);
-									if(types.isErr()) {
-										str.reset(m);
-										return types.up();
-									}
-
-									frames.add(new StackMapAppendFrame(offset, types.value().toArray(VerificationTypeInfo[]::new)));
-									break;
-								}
-								case CHOP_FRAME:
-								{
-									if(!properties.containsKey("absent")) {
-										str.reset(m);
-										return Result.err(new ParseError("No absent property", attr.getInfo().mark()));
-									}
-
-									try {
-										frames.add(new StackMapChopFrame(offset, Integer.parseInt(properties.get("absent"))));
-									}catch(NumberFormatException e) {
-										str.reset(m);
-										return Result.err(new ParseError("Invalid stack map frame offset", blk.mark()));
-									}
-									break;
-								}
-								case FULL_FRAME:
-								{
-									if(!blocks.containsKey("locals") || !blocks.containsKey("stack")) {
-										str.reset(m);
-										return Result.err(new ParseError("No locals/stack block", attr.getInfo().mark()));
-									}
-
-									ParseString localsBlock = blocks.get("locals");
-									var locals = readTypes(cf, localsBlock);
-									if(locals.isErr()) {
-										str.reset(m);
-										return locals.up();
-									}
-
-									ParseString stackBlock = blocks.get("stack");
-									var stack = readTypes(cf, stackBlock);
-									if(stack.isErr()) {
-										str.reset(m);
-										return stack.up();
-									}
-
-									frames.add(new StackMapFullFrame(offset, locals.value().toArray(VerificationTypeInfo[]::new), stack.value().toArray(VerificationTypeInfo[]::new)));
-									break;
-								}
-								case SAME_LOCALS_1_STACK_ITEM_FRAME:
-								{
-									if(!properties.containsKey("type")) {
-										str.reset(m);
-										return Result.err(new ParseError("No type property", attr.getInfo().mark()));
-									}
-
-									VerificationTypeInfo parsedType = parseType(cf, properties.get("type"));
-									if(parsedType == null) {
-										str.reset(m);
-										return Result.err(new ParseError("Invalid type", attr.getInfo().mark()));
-									}
-
-									frames.add(new StackMapSameLocals1StackItemFrame(offset, parsedType));
-									break;
-								}
-								case SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED:
-								{
-									if(!properties.containsKey("type")) {
-										str.reset(m);
-										return Result.err(new ParseError("No type property", attr.getInfo().mark()));
-									}
-
-									VerificationTypeInfo parsedType = parseType(cf, properties.get("type"));
-									if(parsedType == null) {
-										str.reset(m);
-										return Result.err(new ParseError("Invalid type", attr.getInfo().mark()));
-									}
-
-									frames.add(new StackMapSameLocals1StackItemFrameExtended(offset, parsedType));
-									break;
-								}
-								case SAME_FRAME:
-								{
-									frames.add(new StackMapSameFrame(offset));
-									break;
-								}
-								case SAME_FRAME_EXTENDED:
-								{
-									frames.add(new StackMapSameFrameExtended(offset));
-									break;
-								}
-								default:
-									break;
-							}
+						var frames = readFrames(pool, tokens, attr.getInfoToken());
+						if(frames.isErr()) {
+							str.reset(m);
+							return frames.up();
 						}
 
-						smt.setEntries(frames.toArray(StackMapFrame[]::new));
+						smt.setEntries(frames.value().toArray(StackMapFrame[]::new));
 						a = smt;
 						break;
 					}
@@ -484,12 +440,12 @@ public class ClassFileParser {
 
 		List<Attribute> attrs = new ArrayList<>();
 		for(ParserAttribute p : attr.getAttributes()) {
-			var at = createAttribute(cf, p);
+			var at = createAttribute(pool, tokens, p, keepCode, parsedCode);
 			if(at.isErr()) return at.up();
 			attrs.add(at.value());
 		}
 
-		if(attrs.size() > 0) {
+		if(attrs.size() > 0 || replaceAttributes) {
 			str.reset(m);
 			if(a instanceof AttributeRaw) return Result.err(new ParseError("Raw attributes can't have child attributes", str.mark()));
 			a.setAttributes(attrs.toArray(Attribute[]::new));
@@ -498,26 +454,129 @@ public class ClassFileParser {
 		return Result.of(a);
 	}
 
-	private static Result<List<VerificationTypeInfo>, ParseError> readTypes(ClassFile cf, ParseString str) {
-		int m = str.mark();
-		List<VerificationTypeInfo> types = new ArrayList<>();
-		while(true) {
-			str.stripLeading();
-			if(str.end()) return Result.of(types);
+	// Reads the frames in the info block opening at the given token, every nested block ends at the brace matching its opening brace
+	private static Result<List<StackMapFrame>, ParseError> readFrames(ConstantPoolBuilder pool, TokenStream tokens, int open) {
+		List<StackMapFrame> frames = new ArrayList<>();
+		int end = tokens.getMatch(open);
+		int t = open + 1;
+		while(t < end) {
+			int type = t;
+			if(!tokens.isWord(type)) return Result.err(new ParseError("Unexpected token '" + tokens.string(type) + "'", tokens.getStart(type)));
+			if(type + 1 == end || !tokens.isOpen(type + 1)) return Result.err(new ParseError("'{' expected", tokens.getStart(type + 1)));
+
+			int blockEnd = tokens.getMatch(type + 1);
+			Map<String, String> properties = new HashMap<>();
+			Map<String, Integer> blocks = new HashMap<>(); // Name -> opening brace
+			for(int i = type + 2; i < blockEnd; i++) {
+				if(readPair(tokens, i, properties)) continue;
+				if(!tokens.isWord(i) || !tokens.isOpen(i + 1)) return Result.err(new ParseError("Unexpected token '" + tokens.string(i) + "'", tokens.getStart(i)));
+				blocks.put(tokens.string(i), i + 1);
+				i = tokens.getMatch(i + 1);
+			}
+			t = blockEnd + 1;
+
+			int pos = tokens.getStart(type);
+			StackMapFrameType frameType;
+			try {
+				frameType = StackMapFrameType.valueOf(tokens.string(type).toUpperCase());
+			}catch(IllegalArgumentException e) {
+				return Result.err(new ParseError("Invalid stack map frame type", pos));
+			}
 
-			String token = str.nextToken();
-			VerificationTypeInfo type = parseType(cf, token);
-			if(type == null) {
-				int mark = str.mark();
-				str.reset(m);
-				return Result.err(new ParseError("Invalid type", mark));
+			if(!properties.containsKey("offset")) return Result.err(new ParseError("No offset property", pos));
+
+			int offset;
+			try {
+				offset = Integer.parseInt(properties.get("offset"));
+			}catch(NumberFormatException e) {
+				return Result.err(new ParseError("Invalid stack map frame offset", pos));
 			}
 
+			switch(frameType) {
+				case APPEND_FRAME:
+				{
+					if(!blocks.containsKey("types")) return Result.err(new ParseError("No types block", pos));
+
+					var types = readTypes(pool, tokens, blocks.get("types"));
+					if(types.isErr()) return types.up();
+
+					frames.add(new StackMapAppendFrame(offset, types.value().toArray(VerificationTypeInfo[]::new)));
+					break;
+				}
+				case CHOP_FRAME:
+				{
+					if(!properties.containsKey("absent")) return Result.err(new ParseError("No absent property", pos));
+
+					try {
+						frames.add(new StackMapChopFrame(offset, Integer.parseInt(properties.get("absent"))));
+					}catch(NumberFormatException e) {
+						return Result.err(new ParseError("Invalid stack map frame offset", pos));
+					}
+					break;
+				}
+				case FULL_FRAME:
+				{
+					if(!blocks.containsKey("locals") || !blocks.containsKey("stack")) return Result.err(new ParseError("No locals/stack block", pos));
+
+					var locals = readTypes(pool, tokens, blocks.get("locals"));
+					if(locals.isErr()) return locals.up();
+
+					var stack = readTypes(pool, tokens, blocks.get("stack"));
+					if(stack.isErr()) return stack.up();
+
+					frames.add(new StackMapFullFrame(offset, locals.value().toArray(VerificationTypeInfo[]::new), stack.value().toArray(VerificationTypeInfo[]::new)));
+					break;
+				}
+				case SAME_LOCALS_1_STACK_ITEM_FRAME:
+				{
+					if(!properties.containsKey("type")) return Result.err(new ParseError("No type property", pos));
+
+					VerificationTypeInfo parsedType = parseType(pool, properties.get("type"));
+					if(parsedType == null) return Result.err(new ParseError("Invalid type", pos));
+
+					frames.add(new StackMapSameLocals1StackItemFrame(offset, parsedType));
+					break;
+				}
+				case SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED:
+				{
+					if(!properties.containsKey("type")) return Result.err(new ParseError("No type property", pos));
+
+					VerificationTypeInfo parsedType = parseType(pool, properties.get("type"));
+					if(parsedType == null) return Result.err(new ParseError("Invalid type", pos));
+
+					frames.add(new StackMapSameLocals1StackItemFrameExtended(offset, parsedType));
+					break;
+				}
+				case SAME_FRAME:
+				{
+					frames.add(new StackMapSameFrame(offset));
+					break;
+				}
+				case SAME_FRAME_EXTENDED:
+				{
+					frames.add(new StackMapSameFrameExtended(offset));
+					break;
+				}
+				default:
+					break;
+			}
+		}
+
+		return Result.of(frames);
+	}
+
+	private static Result<List<VerificationTypeInfo>, ParseError> readTypes(ConstantPoolBuilder pool, TokenStream tokens, int open) {
+		List<VerificationTypeInfo> types = new ArrayList<>();
+		int end = tokens.getMatch(open);
+		for(int t = open + 1; t < end; t++) {
+			VerificationTypeInfo type = tokens.isWord(t) ? parseType(pool, tokens.string(t)) : null;
+			if(type == null) return Result.err(new ParseError("Invalid type", tokens.getStart(t)));
 			types.add(type);
 		}
+		return Result.of(types);
 	}
 
-	private static VerificationTypeInfo parseType(ClassFile cf, String str) {
+	private static VerificationTypeInfo parseType(ConstantPoolBuilder pool, String str) {
 		String[] spl = str.split(":");
 		VerificationType type;
 		try {
@@ -538,7 +597,7 @@ public class ClassFileParser {
 				return new VariableInfoGeneric(type);
 			case OBJECT:
 				if(spl.length != 2) return null;
-				return new VariableInfoObject(cf.getConstantPool().getEntry(ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, spl[1]))).as(ConstantPoolClassEntry.class));
+				return new VariableInfoObject(pool.getEntry(pool.getOrAppendClass(spl[1])).as(ConstantPoolClassEntry.class));
 			case UNINITIALIZED_VARIABLE:
 				if(spl.length != 2) return null;
 				String offsetStr = spl[1];
@@ -559,278 +618,334 @@ public class ClassFileParser {
 		}
 	}
 
-	private static Result<Map.Entry<String, String>, ParseError> readPair(ParseString str) {
-		int m = str.mark();
-		str.stripLeading();
-		String pair = str.nextToken();
-		if(pair == null) {
-			str.reset(m);
-			return Result.err(new ParseError("Unexpected end of input", str.mark()));
-		}
-
-		if(!pair.contains("=")) {
-			str.reset(m);
-			return Result.err(new ParseError("Pair needs to contain '='", str.mark()));
-		}
-
-		String[] kv = pair.split("=", 2);
-		return Result.of(new AbstractMap.SimpleEntry<>(kv[0], kv[1]));
-	}
+	// Returns null if the original constant pool is kept, otherwise its formatted entries if requested or an empty array
+	private static Result<String[], ParseError> readConstantPool(ConstantPoolBuilder pool, ParseString parse, TokenStream tokens, boolean keepOriginal) {
+		ClassFile cf = pool.getClassFile();
+		var block = readBlock(parse, tokens);
+		if(block.isErr()) return block.up();
 
-	private static Result<Void, ParseError> readConstantPool(ClassFile cf, ParseString str) {
-		int m = str.mark();
-		str.stripLeading();
+		ParseString blk = block.value();
+		if(readFoldMarker(blk, ClassFileFormatter.FOLDED_CONSTANT_POOL) != null) return Result.of(null); // Keep the original constant pool
+
+		// The entries of the original pool resolve their references through the pool, so they have to be formatted before it is cleared
+		String[] original = new String[0];
+		if(keepOriginal) {
+			ConstantPoolEntry[] entries = cf.getConstantPool().getEntries();
+			original = new String[entries.length];
+			for(int i = 0; i < entries.length; i++) {
+				if(entries[i] != null) original[i] = ClassFileFormatter.formatConstantPoolEntry(cf, entries[i]).toString();
+			}
 
-		var block = readBlock(str);
-		if(block.isErr()) {
-			str.reset(m);
-			return block.up();
+			// Parsing appends the entries an entry references before the entry itself, so a parsed copy of an unchanged pool wouldn't start with the original entries
+			if(isUnchanged(blk, original)) return Result.of(null);
 		}
 
-		ParseString blk = block.value();
-		Result<ConstantPoolEntry, ParseError> err;
+		pool.clear();
+		Result<Integer, ParseError> err;
 		while(true) {
 			blk.stripLeading();
-			var en = parseConstantPoolEntry(cf, blk);
+			var en = parseConstantPoolEntry(pool, blk);
 			if(en.isErr()) {
 				err = en;
 				break;
 			}
 		}
 
-		if(!blk.end()) {
-			str.reset(m);
-			return err.up();
-		}
+		if(!blk.end()) return err.up();
 
-		return Result.of(null);
+		return Result.of(original);
 	}
 
-	private static Result<ParserField, ParseError> readField(ParseString str) {
-		int m = str.mark();
-		str.stripLeading();
-		String name = str.nextToken();
-		if(name == null) {
-			str.reset(m);
-			return Result.err(new ParseError("Unexpected end of input", str.mark()));
-		}
-
-		var block = readBlock(str);
-		if(block.isErr()) {
-			str.reset(m);
-			return block.up();
+	// Reads the bodies of the methods that will be created and resolves the entries they reference that are already in the pool, in parallel for large classes
+	// Nothing is added to the pool while doing so. The missing entries are appended when the methods are created in order, so every entry gets the same index as when reading the bodies one after another
+	private static Map<ParserAttribute, Result<ParsedByteCode, ParseError>> readCode(ConstantPoolBuilder pool, List<ParserMethod> methods, List<Integer> unchangedMethods, boolean keepIndices, ParseDiagnostics diagnostics) {
+		List<ParserAttribute> code = new ArrayList<>();
+		for(int i = 0; i < methods.size(); i++) {
+			if(unchangedMethods.get(i) != -1 && keepIndices) continue;
+			for(ParserAttribute a : methods.get(i).getAttributes()) {
+				if(a.getName().equals("Code")) code.add(a);
+			}
 		}
 
-		ParseString blk = block.value();
-
-		Map<String, String> properties = new HashMap<>();
-		List<ParserAttribute> attributes = new ArrayList<>();
-		while(true) {
-			var pair = readPair(blk);
-			if(!pair.isErr()) {
-				var kv = pair.value();
-				properties.put(kv.getKey(), kv.getValue());
-				continue;
+		Map<ParserAttribute, Result<ParsedByteCode, ParseError>> parsed = new ConcurrentHashMap<>();
+		Stream<ParserAttribute> stream = methods.size() >= PARALLEL_CODE_THRESHOLD ? code.parallelStream() : code.stream();
+		stream.forEach(a -> {
+			ParseString str = a.getInfo();
+			int m = str.mark();
+			str.stripLeading();
+			// Raw and folded bodies aren't read by ByteCodeParser
+			if(!str.expect("0x") && readFoldMarker(str, ClassFileFormatter.FOLDED_CODE) == null) {
+				var body = ByteCodeParser.read(str, diagnostics);
+				if(!body.isErr()) ByteCodeParser.resolve(pool, body.value());
+				parsed.put(a, body);
 			}
+			str.reset(m);
+		});
+		return parsed;
+	}
 
+	private static boolean isUnchanged(ParseString blk, String[] original) {
+		int m = blk.mark();
+		boolean unchanged = true;
+		for(String entry : original) {
+			if(entry == null) continue;
 			blk.stripLeading();
-			if(blk.end()) break;
-			String token = blk.nextToken();
-			if(token == null) {
-				str.reset(m);
-				return Result.err(new ParseError("Unexpected end of input", str.mark() + blk.mark()));
+			if(!blk.expect(entry) || !(blk.end() || Character.isWhitespace(blk.peek(0)))) {
+				unchanged = false;
+				break;
 			}
+		}
 
-			switch(token) {
-				case "attribute":
-				{
-					var attr = readAttribute(blk);
-					if(attr.isErr()) {
-						str.reset(m);
-						return attr.up();
-					}
+		unchanged = unchanged && blk.stripLeading().end();
+		blk.reset(m);
+		return unchanged;
+	}
 
-					attributes.add(attr.value());
-					break;
-				}
-				default:
-				{
-					str.reset(m);
-					return Result.err(new ParseError("Unexpected token '" + token + "'", str.mark() + blk.mark()));
-				}
+	// Compares the child attributes of a block to their original attributes token by token, so indentation doesn't matter
+	private static boolean isUnchanged(ClassFile cf, Attribute[] original, List<ParserAttribute> attributes) {
+		if(original.length != attributes.size()) return false;
+		for(int i = 0; i < original.length; i++) {
+			TokenStream a = TokenStream.lex(ClassFileFormatter.formatAttribute(cf, original[i]));
+			TokenStream b = TokenStream.lex(attributes.get(i).getText());
+			if(a.size() != b.size()) return false;
+			for(int t = 0; t < a.size(); t++) {
+				if(!a.view(t).contentEquals(b.string(t))) return false;
 			}
 		}
-
-		return Result.of(new ParserField(m, name, properties, attributes));
+		return true;
 	}
 
-	private static Result<ParserAttribute, ParseError> readAttribute(ParseString str) {
+	// Returns the argument of a marker written by ClassFileFormatter if it is the only content of the block
+	private static String readFoldMarker(ParseString str, String type) {
 		int m = str.mark();
 		str.stripLeading();
-		String name = str.nextToken();
-		if(name == null) {
+		StringView token = str.nextTokenView();
+		if(token == null || !token.startsWith(ClassFileFormatter.FOLDED_PREFIX) || !token.subSequence(ClassFileFormatter.FOLDED_PREFIX.length()).startsWith(type)) {
 			str.reset(m);
-			return Result.err(new ParseError("Unexpected end of input", str.mark()));
+			return null;
 		}
 
-		var block = readBlock(str);
-		if(block.isErr()) {
+		StringView arg = token.subSequence(ClassFileFormatter.FOLDED_PREFIX.length() + type.length());
+		if(!arg.startsWith(":") || !arg.endsWith("}") || !str.stripLeading().end()) {
 			str.reset(m);
-			return block.up();
+			return null;
 		}
 
-		ParseString blk = block.value();
+		return arg.subSequence(1, arg.length() - 1).toString();
+	}
 
-		Map<String, String> properties = new HashMap<>();
-		List<ParserAttribute> attributes = new ArrayList<>();
-		ParseString info = null;
-		while(true) {
-			var pair = readPair(blk);
-			if(!pair.isErr()) {
-				var kv = pair.value();
-				properties.put(kv.getKey(), kv.getValue());
+	private static boolean isConstantPoolCompatible(String[] original, ClassFile cf) {
+		ConstantPoolEntry[] newEntries = cf.getConstantPool().getEntries();
+		if(newEntries.length < original.length) return false;
+		for(int i = 0; i < original.length; i++) {
+			if(original[i] == null || newEntries[i] == null) {
+				if(original[i] != null || newEntries[i] != null) return false;
 				continue;
 			}
 
-			blk.stripLeading();
-			if(blk.end()) break;
-			String token = blk.nextToken();
-			if(token == null) {
-				str.reset(m);
-				return Result.err(new ParseError("Unexpected end of input", str.mark() + blk.mark()));
-			}
+			if(!original[i].equals(ClassFileFormatter.formatConstantPoolEntry(cf, newEntries[i]).toString())) return false;
+		}
 
-			switch(token) {
-				case "attribute":
-				{
-					var attr = readAttribute(blk);
-					if(attr.isErr()) {
-						str.reset(m);
-						return attr.up();
-					}
+		return true;
+	}
 
-					attributes.add(attr.value());
-					break;
-				}
-				case "info":
-				{
-					if(info != null) return Result.err(new ParseError("Duplicate info block", str.mark()));
-					var infoR = readBlock(blk);
-					if(infoR.isErr()) {
-						str.reset(m);
-						return infoR.up();
-					}
+	private static Result<ParserField, ParseError> readField(ParseString parse, TokenStream tokens) {
+		var name = readName(tokens);
+		if(name.isErr()) return name.up();
 
-					info = infoR.value();
-					break;
-				}
-				default:
-				{
-					str.reset(m);
-					return Result.err(new ParseError("Unexpected token '" + token + "'", str.mark() + blk.mark()));
-				}
-			}
-		}
+		var block = enterBlock(tokens);
+		if(block.isErr()) return block.up();
 
-		if(info == null) {
-			str.reset(m);
-			return Result.err(new ParseError("Unexpected end of input", str.mark()));
+		int end = block.value();
+		Map<String, String> properties = new HashMap<>();
+		List<ParserAttribute> attributes = new ArrayList<>();
+		int t;
+		while((t = tokens.next()) != end) {
+			if(readPair(tokens, t, properties)) continue;
+
+			if(tokens.is(t, "attribute")) {
+				var attr = readAttribute(parse, tokens);
+				if(attr.isErr()) return attr.up();
+				attributes.add(attr.value());
+			}else {
+				return Result.err(new ParseError("Unexpected token '" + tokens.string(t) + "'", tokens.getStart(t)));
+			}
 		}
 
-		return Result.of(new ParserAttribute(name, info, properties, attributes));
+		return Result.of(new ParserField(tokens.getStart(name.value()), tokens.string(name.value()), properties, attributes));
 	}
 
-	private static Result<ParserMethod, ParseError> readMethod(ParseString str) {
-		int m = str.mark();
-		str.stripLeading();
-		String name = str.nextToken();
-		if(name == null) {
-			str.reset(m);
-			return Result.err(new ParseError("Unexpected end of input", str.mark()));
-		}
+	private static Result<ParserAttribute, ParseError> readAttribute(ParseString parse, TokenStream tokens) {
+		var name = readName(tokens);
+		if(name.isErr()) return name.up();
 
-		var block = readBlock(str);
-		if(block.isErr()) {
-			str.reset(m);
-			return block.up();
+		var block = enterBlock(tokens);
+		if(block.isErr()) return block.up();
+
+		int end = block.value();
+		Map<String, String> properties = new HashMap<>();
+		List<ParserAttribute> attributes = new ArrayList<>();
+		ParseString info = null;
+		int infoToken = -1;
+		int t;
+		while((t = tokens.next()) != end) {
+			if(readPair(tokens, t, properties)) continue;
+
+			if(tokens.is(t, "attribute")) {
+				var attr = readAttribute(parse, tokens);
+				if(attr.isErr()) return attr.up();
+				attributes.add(attr.value());
+			}else if(tokens.is(t, "info")) {
+				if(info != null) return Result.err(new ParseError("Duplicate info block", tokens.getStart(t)));
+				infoToken = tokens.peek();
+				var infoR = readBlock(parse, tokens);
+				if(infoR.isErr()) return infoR.up();
+				info = infoR.value();
+			}else {
+				return Result.err(new ParseError("Unexpected token '" + tokens.string(t) + "'", tokens.getStart(t)));
+			}
 		}
 
-		ParseString blk = block.value();
+		if(info == null) return Result.err(new ParseError("Missing info block", tokens.getStart(name.value())));
+
+		return Result.of(new ParserAttribute(tokens.string(name.value()), info, infoToken, properties, attributes, tokens.view(name.value() - 1, end)));
+	}
 
+	private static Result<ParserMethod, ParseError> readMethod(ParseString parse, TokenStream tokens) {
+		var name = readName(tokens);
+		if(name.isErr()) return name.up();
+
+		var block = enterBlock(tokens);
+		if(block.isErr()) return block.up();
+
+		int end = block.value();
 		Map<String, String> properties = new HashMap<>();
 		List<ParserAttribute> attributes = new ArrayList<>();
-		while(true) {
-			var pair = readPair(blk);
-			if(!pair.isErr()) {
-				var kv = pair.value();
-				properties.put(kv.getKey(), kv.getValue());
-				continue;
+		int t;
+		while((t = tokens.next()) != end) {
+			if(readPair(tokens, t, properties)) continue;
+
+			if(tokens.is(t, "attribute")) {
+				var attr = readAttribute(parse, tokens);
+				if(attr.isErr()) return attr.up();
+				attributes.add(attr.value());
+			}else {
+				return Result.err(new ParseError("Unexpected token '" + tokens.string(t) + "'", tokens.getStart(t)));
 			}
+		}
 
-			blk.stripLeading();
-			if(blk.end()) break;
-			String token = blk.nextToken();
-			if(token == null) {
-				str.reset(m);
-				return Result.err(new ParseError("Unexpected end of input", str.mark() + blk.mark()));
-			}
+		return Result.of(new ParserMethod(tokens.getStart(name.value()), tokens.string(name.value()), properties, attributes));
+	}
 
-			switch(token) {
-				case "attribute":
-				{
-					var attr = readAttribute(blk);
-					if(attr.isErr()) {
-						str.reset(m);
-						return attr.up();
-					}
+	// Returns the index of the original member if the block starting at the keyword is unchanged, -1 otherwise
+	private static int findUnchanged(MemberHashes hashes, ClassFile cf, String str, TokenStream tokens, int keyword) {
+		if(hashes == null) return -1;
 
-					attributes.add(attr.value());
-					break;
-				}
-				default:
-				{
-					str.reset(m);
-					return Result.err(new ParseError("Unexpected token '" + token + "'", str.mark() + blk.mark()));
-				}
-			}
+		int end = MemberHashes.getBlockEnd(tokens, keyword);
+		if(end == -1) return -1;
+
+		int type = MemberHashes.getType(tokens, keyword);
+		int count;
+		switch(type) {
+			case FormatIndex.ATTRIBUTE:
+				count = cf.getAttributes().length;
+				break;
+			case FormatIndex.FIELD:
+				count = cf.getFields().length;
+				break;
+			case FormatIndex.METHOD:
+				count = cf.getMethods().length;
+				break;
+			default:
+				return -1;
 		}
 
-		return Result.of(new ParserMethod(m, name, properties, attributes));
+		int unchanged = hashes.find(type, str, tokens.getStart(keyword), tokens.getEnd(end));
+		return unchanged < count ? unchanged : -1;
 	}
 
-	private static Result<ParseString, ParseError> readBlock(ParseString str) {
-		int m = str.mark();
-		str.stripLeading();
-		if(str.get() != '{') {
-			str.reset(m);
-			return Result.err(new ParseError("'{' expected", str.mark()));
+	// Adds the error to the diagnostics and moves past the block starting at the keyword, returns false if there are no diagnostics to continue with
+	private static boolean recover(ParseDiagnostics diagnostics, ParseError error, TokenStream tokens, int keyword) {
+		if(diagnostics == null) return false;
+		diagnostics.add(error);
+
+		int end = MemberHashes.getBlockEnd(tokens, keyword);
+		if(end != -1) {
+			tokens.reset(end + 1);
+			return true;
 		}
 
-		int i = 0;
-		int count = 1;
-		while(count > 0 && ++i < str.remaining()) {
-			switch(str.peek(i)) {
-				case '{':
-					count++;
-					break;
-				case '}':
-					count--;
-					break;
+		// Without a complete block, continue at the next top-level keyword or property
+		tokens.reset(keyword + 1);
+		int t;
+		while((t = tokens.peek()) != -1) {
+			if(tokens.isOpen(t) && tokens.getMatch(t) != -1) {
+				tokens.reset(tokens.getMatch(t) + 1);
+				continue;
 			}
-		}
 
-		if(i == str.remaining()) {
-			str.reset(m);
-			return Result.err(new ParseError("'}' expected", str.mark() + i));
+			if(tokens.isWord(t) && (MemberHashes.getType(tokens, t) != -1 || tokens.contains(t, '='))) break;
+			tokens.next();
 		}
+		return true;
+	}
 
-		str.advance();
-		ParseString block = str.sub(i - 1);
-		str.advance(i);
-		return Result.of(block);
+	private static Result<Integer, ParseError> readName(TokenStream tokens) {
+		int t = tokens.next();
+		if(t == -1) return Result.err(new ParseError("Unexpected end of input", tokens.getLength()));
+		if(!tokens.isWord(t)) return Result.err(new ParseError("Name expected", tokens.getStart(t)));
+		return Result.of(t);
+	}
+
+	private static boolean readPair(TokenStream tokens, int t, Map<String, String> properties) {
+		if(!tokens.isWord(t) || !tokens.contains(t, '=')) return false;
+		StringView pair = tokens.view(t);
+		int eq = pair.indexOf('=');
+		properties.put(pair.subSequence(0, eq).toString(), pair.subSequence(eq + 1).toString());
+		return true;
+	}
+
+	// Moves to the first token inside of the block and returns the index of its closing brace
+	private static Result<Integer, ParseError> enterBlock(TokenStream tokens) {
+		int t = tokens.next();
+		if(t == -1) return Result.err(new ParseError("'{' expected", tokens.getLength()));
+		if(!tokens.isOpen(t)) return Result.err(new ParseError("'{' expected", tokens.getStart(t)));
+
+		int end = tokens.getMatch(t);
+		if(end == -1) return Result.err(new ParseError("'}' expected", tokens.getLength()));
+		return Result.of(end);
+	}
+
+	// Returns the contents of the block as a ParseString and moves past its closing brace
+	private static Result<ParseString, ParseError> readBlock(ParseString parse, TokenStream tokens) {
+		var block = enterBlock(tokens);
+		if(block.isErr()) return block.up();
+
+		int end = block.value();
+		int start = tokens.getEnd(tokens.getMatch(end));
+		parse.reset(start);
+		ParseString blk = parse.sub(tokens.getStart(end) - start);
+		tokens.reset(end + 1);
+		return Result.of(blk);
 	}
 
 	public static Result<ConstantPoolEntry, ParseError> parseConstantPoolEntry(ClassFile cf, ParseString str) {
+		ConstantPoolBuilder pool = new ConstantPoolBuilder(cf);
+		var idx = parseConstantPoolEntry(pool, str);
+		if(idx.isErr()) return idx.up();
+		pool.build();
+		return Result.of(cf.getConstantPool().getEntry(idx.value()));
+	}
+
+	// Returns the index of the entry, appending it to the pool if it doesn't exist yet
+	static Result<Integer, ParseError> parseConstantPoolEntry(ConstantPoolBuilder pool, ParseString str) {
+		var entry = readConstantPoolEntry(str);
+		if(entry.isErr()) return entry.up();
+		return Result.of(appendConstantPoolEntry(pool, entry.value()));
+	}
+
+	// Reads an entry without touching the constant pool
+	static Result<ParserConstantPoolEntry, ParseError> readConstantPoolEntry(ParseString str) {
 		int m = str.mark();
 		str.stripLeading();
 		if(str.end()) {
@@ -858,80 +973,119 @@ public class ClassFileParser {
 		}
 		str.advance();
 
-		String[] spl = content.split(":");
+		if(!CONSTANT_POOL_TAGS.contains(tag)) {
+			str.reset(m);
+			return Result.err(new ParseError("Invalid constant pool tag '" + tag + "'", str.mark()));
+		}
 
-		int idx;
 		// TODO: checks, allow escaping
-		switch(tag) {
+		return Result.of(new ParserConstantPoolEntry(tag, content.split(":")));
+	}
+
+	// Like appendConstantPoolEntry, but returns -1 instead of appending the entry if it isn't in the pool
+	static int findConstantPoolEntry(ConstantPoolBuilder pool, ParserConstantPoolEntry entry) {
+		String[] spl = entry.getValues();
+		try {
+			switch(entry.getTag()) {
+				case "class":
+					return pool.findClass(spl[0]);
+				case "field":
+					return pool.findFieldRef(pool.findClass(spl[0]), pool.findNameAndType(pool.findUTF8(spl[1]), pool.findUTF8(spl[2])));
+				case "method":
+				case "interfacemethod":
+					return pool.findMethodRef(pool.findClass(spl[0]), pool.findNameAndType(pool.findUTF8(spl[1]), pool.findUTF8(spl[2])));
+				case "utf8":
+					return pool.findUTF8(spl[0]);
+				case "string":
+					return pool.findString(spl[0]);
+				case "integer":
+					return pool.findInteger(Integer.parseInt(spl[0]));
+				case "float":
+					return pool.findFloat(Float.parseFloat(spl[0]));
+				case "long":
+					return pool.findLong(Long.parseLong(spl[0]));
+				case "nameandtype":
+					return pool.findNameAndType(pool.findUTF8(spl[0]), pool.findUTF8(spl[1]));
+				default:
+					return -1;
+			}
+		}catch(IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			return -1; // Left to appendConstantPoolEntry
+		}
+	}
+
+	static int appendConstantPoolEntry(ConstantPoolBuilder pool, ParserConstantPoolEntry entry) {
+		String[] spl = entry.getValues();
+		int idx;
+		switch(entry.getTag()) {
 			case "class":
 			{
-				idx = ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, spl[0]));
+				idx = pool.getOrAppendClass(spl[0]);
 				break;
 			}
 			case "field":
 			{
-				idx = ClassFileUtils.getOrAppendFieldRef(cf,
-					ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, spl[0])),
-					ClassFileUtils.getOrAppendNameAndType(cf,
-						ClassFileUtils.getOrAppendUTF8(cf, spl[1]),
-						ClassFileUtils.getOrAppendUTF8(cf, spl[2])));
+				idx = pool.getOrAppendFieldRef(
+					pool.getOrAppendClass(spl[0]),
+					pool.getOrAppendNameAndType(
+						pool.getOrAppendUTF8(spl[1]),
+						pool.getOrAppendUTF8(spl[2])));
 				break;
 			}
 			case "method":
 			{
-				idx = ClassFileUtils.getOrAppendMethodRef(cf,
-					ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, spl[0])),
-					ClassFileUtils.getOrAppendNameAndType(cf,
-						ClassFileUtils.getOrAppendUTF8(cf, spl[1]),
-						ClassFileUtils.getOrAppendUTF8(cf, spl[2])));
+				idx = pool.getOrAppendMethodRef(
+					pool.getOrAppendClass(spl[0]),
+					pool.getOrAppendNameAndType(
+						pool.getOrAppendUTF8(spl[1]),
+						pool.getOrAppendUTF8(spl[2])));
 				break;
 			}
 			case "interfacemethod":
 			{
-				idx = ClassFileUtils.getOrAppendMethodRef(cf,
-					ClassFileUtils.getOrAppendClass(cf, ClassFileUtils.getOrAppendUTF8(cf, spl[0])),
-					ClassFileUtils.getOrAppendNameAndType(cf,
-						ClassFileUtils.getOrAppendUTF8(cf, spl[1]),
-						ClassFileUtils.getOrAppendUTF8(cf, spl[2])));
+				idx = pool.getOrAppendMethodRef(
+					pool.getOrAppendClass(spl[0]),
+					pool.getOrAppendNameAndType(
+						pool.getOrAppendUTF8(spl[1]),
+						pool.getOrAppendUTF8(spl[2])));
 				break;
 			}
 			case "utf8":
 			{
-				idx = ClassFileUtils.getOrAppendUTF8(cf, spl[0]);
+				idx = pool.getOrAppendUTF8(spl[0]);
 				break;
 			}
 			case "string":
 			{
-				idx = ClassFileUtils.getOrAppendString(cf, spl[0]);
+				idx = pool.getOrAppendString(spl[0]);
 				break;
 			}
 			case "integer":
 			{
-				idx = ClassFileUtils.getOrAppendInteger(cf, Integer.parseInt(spl[0]));
+				idx = pool.getOrAppendInteger(Integer.parseInt(spl[0]));
 				break;
 			}
 			case "float":
 			{
-				idx = ClassFileUtils.getOrAppendFloat(cf, Float.parseFloat(spl[0]));
+				idx = pool.getOrAppendFloat(Float.parseFloat(spl[0]));
 				break;
 			}
 			case "long":
 			{
-				idx = ClassFileUtils.getOrAppendLong(cf, Long.parseLong(spl[0]));
+				idx = pool.getOrAppendLong(Long.parseLong(spl[0]));
 				break;
 			}
 			case "nameandtype":
 			{
-				idx = ClassFileUtils.getOrAppendNameAndType(cf,
-					ClassFileUtils.getOrAppendUTF8(cf, spl[0]),
-					ClassFileUtils.getOrAppendUTF8(cf, spl[1]));
+				idx = pool.getOrAppendNameAndType(
+					pool.getOrAppendUTF8(spl[0]),
+					pool.getOrAppendUTF8(spl[1]));
 				break;
 			}
 			default:
-				str.reset(m);
-				return Result.err(new ParseError("Invalid constant pool tag '" + tag + "'", str.mark()));
+				throw new IllegalArgumentException("Invalid constant pool tag '" + entry.getTag() + "'");
 		}
-		return Result.of(cf.getConstantPool().getEntry(idx));
+		return idx;
 	}
 
 }
@@ -0,0 +1,260 @@
+package me.mrletsplay.jareditor.format;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+import me.mrletsplay.mrcore.misc.classfile.pool.ConstantPool;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolClassEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolFieldRefEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolFloatEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolIntegerEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolLongEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolMethodRefEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolNameAndTypeEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolStringEntry;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolUTF8Entry;
+import me.mrletsplay.mrcore.misc.classfile.util.ClassFileUtils;
+
+// Indexes the existing entries of the pool once, so neither looking up nor adding an entry searches the pool
+// New entries get their index right away, but are only added to the pool by build
+class ConstantPoolBuilder {
+
+	private ClassFile cf;
+	private List<ConstantPoolEntry> pending;
+	private int next; // Index of the next new entry
+	private Map<String, Integer> utf8s, strings;
+	private Map<Integer, Integer> classes, integers, floats;
+	private Map<Long, Integer> longs, nameAndTypes, fieldRefs, methodRefs;
+
+	public ConstantPoolBuilder(ClassFile cf) {
+		this.cf = cf;
+		this.pending = new ArrayList<>();
+		this.utf8s = new HashMap<>();
+		this.strings = new HashMap<>();
+		this.classes = new HashMap<>();
+		this.integers = new HashMap<>();
+		this.floats = new HashMap<>();
+		this.longs = new HashMap<>();
+		this.nameAndTypes = new HashMap<>();
+		this.fieldRefs = new HashMap<>();
+		this.methodRefs = new HashMap<>();
+		index();
+	}
+
+	public ClassFile getClassFile() {
+		return cf;
+	}
+
+	public void clear() {
+		cf.getConstantPool().clear();
+		pending.clear();
+		utf8s.clear();
+		strings.clear();
+		classes.clear();
+		integers.clear();
+		floats.clear();
+		longs.clear();
+		nameAndTypes.clear();
+		fieldRefs.clear();
+		methodRefs.clear();
+		index();
+	}
+
+	private void index() {
+		ConstantPoolEntry[] entries = cf.getConstantPool().getEntries();
+		next = entries.length + 1;
+		Map<ConstantPoolEntry, Integer> indices = new IdentityHashMap<>(entries.length);
+		for(int i = 0; i < entries.length; i++) {
+			if(entries[i] != null) indices.put(entries[i], i + 1);
+		}
+
+		// Like ClassFileUtils, the first of several equal entries is used
+		for(int i = 0; i < entries.length; i++) {
+			ConstantPoolEntry entry = entries[i];
+			if(entry == null) continue;
+			int idx = i + 1;
+			switch(entry.getTag()) {
+				case UTF_8:
+					utf8s.putIfAbsent(((ConstantPoolUTF8Entry) entry).getValue(), idx);
+					break;
+				case STRING:
+					strings.putIfAbsent(((ConstantPoolStringEntry) entry).getString().getValue(), idx);
+					break;
+				case CLASS:
+				{
+					Integer name = indices.get(((ConstantPoolClassEntry) entry).getName());
+					if(name != null) classes.putIfAbsent(name, idx);
+					break;
+				}
+				case INTEGER:
+					integers.putIfAbsent(((ConstantPoolIntegerEntry) entry).getValue(), idx);
+					break;
+				case FLOAT:
+					floats.putIfAbsent(Float.floatToRawIntBits(((ConstantPoolFloatEntry) entry).getValue()), idx);
+					break;
+				case LONG:
+					longs.putIfAbsent(((ConstantPoolLongEntry) entry).getValue(), idx);
+					break;
+				case NAME_AND_TYPE:
+				{
+					ConstantPoolNameAndTypeEntry e = (ConstantPoolNameAndTypeEntry) entry;
+					Integer name = indices.get(e.getName()), descriptor = indices.get(e.getDescriptor());
+					if(name != null && descriptor != null) nameAndTypes.putIfAbsent(pack(name, descriptor), idx);
+					break;
+				}
+				case FIELD_REF:
+				{
+					ConstantPoolFieldRefEntry e = (ConstantPoolFieldRefEntry) entry;
+					Integer cls = indices.get(e.getClassInfo()), nameAndType = indices.get(e.getNameAndType());
+					if(cls != null && nameAndType != null) fieldRefs.putIfAbsent(pack(cls, nameAndType), idx);
+					break;
+				}
+				case METHOD_REF:
+				{
+					ConstantPoolMethodRefEntry e = (ConstantPoolMethodRefEntry) entry;
+					Integer cls = indices.get(e.getClassInfo()), nameAndType = indices.get(e.getNameAndType());
+					if(cls != null && nameAndType != null) methodRefs.putIfAbsent(pack(cls, nameAndType), idx);
+					break;
+				}
+				default:
+					break;
+			}
+		}
+	}
+
+	public int getOrAppendUTF8(String value) {
+		Integer idx = utf8s.get(value);
+		if(idx == null) utf8s.put(value, idx = append(new ConstantPoolUTF8Entry(cf.getConstantPool(), value)));
+		return idx;
+	}
+
+	public int getOrAppendString(String value) {
+		Integer idx = strings.get(value);
+		if(idx == null) strings.put(value, idx = append(new ConstantPoolStringEntry(cf.getConstantPool(), getOrAppendUTF8(value))));
+		return idx;
+	}
+
+	public int getOrAppendClass(int nameIndex) {
+		Integer idx = classes.get(nameIndex);
+		if(idx == null) classes.put(nameIndex, idx = append(new ConstantPoolClassEntry(cf.getConstantPool(), nameIndex)));
+		return idx;
+	}
+
+	public int getOrAppendClass(String name) {
+		return getOrAppendClass(getOrAppendUTF8(name));
+	}
+
+	public int getOrAppendInteger(int value) {
+		Integer idx = integers.get(value);
+		if(idx == null) integers.put(value, idx = append(new ConstantPoolIntegerEntry(cf.getConstantPool(), value)));
+		return idx;
+	}
+
+	public int getOrAppendFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		Integer idx = floats.get(bits);
+		if(idx == null) floats.put(bits, idx = append(new ConstantPoolFloatEntry(cf.getConstantPool(), value)));
+		return idx;
+	}
+
+	// Longs take up two slots, ClassFileUtils takes care of that. They are rare enough that searching the pool once for each of them doesn't matter
+	public int getOrAppendLong(long value) {
+		Integer idx = longs.get(value);
+		if(idx == null) {
+			build();
+			longs.put(value, idx = ClassFileUtils.getOrAppendLong(cf, value));
+			next = cf.getConstantPool().getEntries().length + 1;
+		}
+		return idx;
+	}
+
+	public int getOrAppendNameAndType(int nameIndex, int descriptorIndex) {
+		long key = pack(nameIndex, descriptorIndex);
+		Integer idx = nameAndTypes.get(key);
+		if(idx == null) nameAndTypes.put(key, idx = append(new ConstantPoolNameAndTypeEntry(cf.getConstantPool(), nameIndex, descriptorIndex)));
+		return idx;
+	}
+
+	public int getOrAppendFieldRef(int classIndex, int nameAndTypeIndex) {
+		long key = pack(classIndex, nameAndTypeIndex);
+		Integer idx = fieldRefs.get(key);
+		if(idx == null) fieldRefs.put(key, idx = append(new ConstantPoolFieldRefEntry(cf.getConstantPool(), classIndex, nameAndTypeIndex)));
+		return idx;
+	}
+
+	public int getOrAppendMethodRef(int classIndex, int nameAndTypeIndex) {
+		long key = pack(classIndex, nameAndTypeIndex);
+		Integer idx = methodRefs.get(key);
+		if(idx == null) methodRefs.put(key, idx = append(new ConstantPoolMethodRefEntry(cf.getConstantPool(), classIndex, nameAndTypeIndex)));
+		return idx;
+	}
+
+	// The find methods only look entries up and return -1 if they are absent, so they can be called from several threads as long as nothing is added at the same time
+	public int findUTF8(String value) {
+		return utf8s.getOrDefault(value, -1);
+	}
+
+	public int findString(String value) {
+		return strings.getOrDefault(value, -1);
+	}
+
+	public int findClass(String name) {
+		return classes.getOrDefault(findUTF8(name), -1);
+	}
+
+	public int findInteger(int value) {
+		return integers.getOrDefault(value, -1);
+	}
+
+	public int findFloat(float value) {
+		return floats.getOrDefault(Float.floatToRawIntBits(value), -1);
+	}
+
+	public int findLong(long value) {
+		return longs.getOrDefault(value, -1);
+	}
+
+	public int findNameAndType(int nameIndex, int descriptorIndex) {
+		return nameAndTypes.getOrDefault(pack(nameIndex, descriptorIndex), -1);
+	}
+
+	public int findFieldRef(int classIndex, int nameAndTypeIndex) {
+		return fieldRefs.getOrDefault(pack(classIndex, nameAndTypeIndex), -1);
+	}
+
+	public int findMethodRef(int classIndex, int nameAndTypeIndex) {
+		return methodRefs.getOrDefault(pack(classIndex, nameAndTypeIndex), -1);
+	}
+
+	// Also returns entries that were not added to the pool yet
+	public ConstantPoolEntry getEntry(int index) {
+		if(index >= next - pending.size()) return pending.get(index - (next - pending.size()));
+		return cf.getConstantPool().getEntry(index);
+	}
+
+	// Adds the new entries to the pool in the order they were created, needs to be called before the pool is used directly
+	public void build() {
+		ConstantPool pool = cf.getConstantPool();
+		int idx = next - pending.size();
+		for(ConstantPoolEntry entry : pending) {
+			if(pool.appendEntry(entry) != idx++) throw new IllegalStateException("Constant pool was modified while building it");
+		}
+		pending.clear();
+	}
+
+	// The maps already tell that the entry is absent, so it doesn't need to be searched for
+	private int append(ConstantPoolEntry entry) {
+		pending.add(entry);
+		return next++;
+	}
+
+	private static long pack(int a, int b) {
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+}
@@ -0,0 +1,262 @@
+package me.mrletsplay.jareditor.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+
+// Formatted class text and its index on disk, keyed by the class bytes and formatter version so identical classes from different archives share an entry
+public class FormatCache {
+
+	public static final String
+		DIRECTORY_PROPERTY = "jareditor.cache.directory",
+		SIZE_PROPERTY = "jareditor.cache.disk-size"; // In MiB, 0 disables the cache
+
+	private static final int MAGIC = 0x4A454643;
+	private static final int VERSION = 2; // Must be changed whenever the layout of the cache files changes
+	private static final int HEADER_SIZE = 8;
+	private static final String SUFFIX = ".z";
+
+	private static FormatCache defaultCache;
+
+	private Path directory;
+	private long maxBytes;
+	private AtomicLong size;
+
+	public FormatCache(Path directory, long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	public static synchronized FormatCache getDefault() {
+		if(defaultCache == null) {
+			String dir = System.getProperty(DIRECTORY_PROPERTY);
+			Path directory = dir != null ? Paths.get(dir) : Paths.get(System.getProperty("user.home"), ".jareditor", "cache", "format");
+			defaultCache = new FormatCache(directory, Long.getLong(SIZE_PROPERTY, 512) * 1024 * 1024);
+		}
+
+		return defaultCache;
+	}
+
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	// Appends the formatted text to the builder and returns its index
+	public FormatIndex formatClass(byte[] classBytes, StringBuilder text) throws IOException {
+		String key = isEnabled() ? createKey(classBytes) : null;
+		if(key != null) {
+			FormatIndex index = get(key, text);
+			if(index != null) return index;
+		}
+
+		int start = text.length();
+		FormatIndex.Builder builder = new FormatIndex.Builder(text);
+		ClassFileFormatter.formatClass(new ClassFile(new ByteArrayInputStream(classBytes)), builder);
+		FormatIndex index = builder.build();
+		if(key != null) put(key, text.subSequence(start, text.length()), index);
+		return index;
+	}
+
+	// Returns null if there is no entry for the key, the text is only appended if there is one
+	public FormatIndex get(String key, StringBuilder text) {
+		Path file = getFile(key);
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buf = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if(buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC) throw new IOException("Invalid cache file");
+
+			byte[] bytes = new byte[buf.getInt()];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(buf);
+				int off = 0;
+				while(off < bytes.length) {
+					int n = inflater.inflate(bytes, off, bytes.length - off);
+					if(n == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("Truncated cache file");
+					off += n;
+				}
+			}finally {
+				inflater.end();
+			}
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+			byte[] textBytes = new byte[in.readInt()];
+			in.readFully(textBytes);
+			String cached = new String(textBytes, StandardCharsets.UTF_8);
+			FormatIndex index = FormatIndex.read(in, cached);
+
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+			text.append(cached);
+			return index;
+		}catch(NoSuchFileException e) {
+			return null;
+		}catch(IOException | DataFormatException e) {
+			e.printStackTrace();
+			delete(file);
+			return null;
+		}
+	}
+
+	public void put(String key, CharSequence text, FormatIndex index) {
+		byte[] bytes;
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream(text.length() + index.size() * 24);
+			DataOutputStream out = new DataOutputStream(data);
+			byte[] textBytes = text.toString().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(textBytes.length);
+			out.write(textBytes);
+			index.write(out);
+			bytes = data.toByteArray();
+		}catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream(bytes.length / 4 + HEADER_SIZE);
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(bytes.length);
+		bOut.write(header.array(), 0, HEADER_SIZE);
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			byte[] buf = new byte[8192];
+			while(!deflater.finished()) {
+				int n = deflater.deflate(buf);
+				bOut.write(buf, 0, n);
+			}
+		}finally {
+			deflater.end();
+		}
+
+		Path file = getFile(key);
+		try {
+			Files.createDirectories(file.getParent());
+			AtomicLong size = getSize(); // Counted before the file is written, so it isn't counted twice
+			long replaced = size(file);
+			Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tmp, bOut.toByteArray());
+				try {
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}catch(AtomicMoveNotSupportedException e) {
+					Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}finally {
+				Files.deleteIfExists(tmp);
+			}
+
+			if(size.addAndGet(bOut.size() - replaced) > maxBytes) evict();
+		}catch(IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static String createKey(byte[] classBytes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(classBytes);
+			digest.update(ByteBuffer.allocate(8).putInt(ClassFileFormatter.FORMAT_VERSION).putInt(VERSION).array());
+
+			StringBuilder b = new StringBuilder();
+			for(byte d : digest.digest()) b.append(String.format("%02x", d & 0xFF));
+			return b.toString();
+		}catch(NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Path getFile(String key) {
+		return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + SUFFIX);
+	}
+
+	private synchronized AtomicLong getSize() throws IOException {
+		if(size == null) {
+			long total = 0;
+			for(Path p : listFiles()) total += Files.size(p);
+			size = new AtomicLong(total);
+		}
+
+		return size;
+	}
+
+	// Drops the least recently used files until the cache is below 90% of its limit
+	private synchronized void evict() throws IOException {
+		if(size.get() <= maxBytes) return;
+
+		List<Path> files = listFiles();
+		files.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+
+		long total = 0;
+		for(Path p : files) total += Files.size(p);
+
+		for(Path p : files) {
+			if(total <= maxBytes * 9 / 10) break;
+			long length = Files.size(p);
+			if(delete(p)) total -= length;
+		}
+
+		size.set(total);
+	}
+
+	private List<Path> listFiles() throws IOException {
+		if(!Files.isDirectory(directory)) return new ArrayList<>();
+		try(Stream<Path> s = Files.walk(directory, 2)) {
+			return s.filter(p -> p.getFileName().toString().endsWith(SUFFIX) && Files.isRegularFile(p))
+				.collect(Collectors.toList());
+		}
+	}
+
+	private static FileTime lastModified(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		}catch(IOException e) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		}catch(IOException e) {
+			return 0;
+		}
+	}
+
+	private static boolean delete(Path file) {
+		try {
+			return Files.deleteIfExists(file);
+		}catch(IOException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,309 @@
+package me.mrletsplay.jareditor.format;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Text ranges of the members, attributes and instructions of a formatted class, plus the start offset of every line
+public class FormatIndex {
+
+	public static final int
+		CONSTANT_POOL = 0,
+		FIELD = 1,
+		METHOD = 2,
+		ATTRIBUTE = 3,
+		INSTRUCTION = 4;
+
+	private int count;
+	private int[] types;
+	private String[] names;
+	private int[] values; // Member index for fields and methods, bytecode offset for instructions, -1 otherwise
+	private int[] starts;
+	private int[] ends;
+	private int[] parents; // -1 for top-level ranges
+	private int[] lineStarts;
+	private int lineCount;
+	private int length; // Of the text the index describes
+
+	private FormatIndex() {
+		this.types = new int[64];
+		this.names = new String[64];
+		this.values = new int[64];
+		this.starts = new int[64];
+		this.ends = new int[64];
+		this.parents = new int[64];
+		this.lineStarts = new int[256];
+		this.lineCount = 1;
+	}
+
+	// Only the line starts, for text that wasn't formatted
+	public static FormatIndex lines(CharSequence text) {
+		FormatIndex index = new FormatIndex();
+		index.addLines(text, 0, text.length(), 0);
+		index.length = text.length();
+		return index;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public int getType(int range) {
+		return types[range];
+	}
+
+	public String getName(int range) {
+		return names[range];
+	}
+
+	public int getValue(int range) {
+		return values[range];
+	}
+
+	public int getStart(int range) {
+		return starts[range];
+	}
+
+	public int getEnd(int range) {
+		return ends[range];
+	}
+
+	public int getParent(int range) {
+		return parents[range];
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	public int getLineStart(int line) {
+		return lineStarts[line];
+	}
+
+	public int getLine(int offset) {
+		int i = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+		return i >= 0 ? i : -i - 2;
+	}
+
+	// Returns the innermost range containing the offset, -1 if there is none
+	public int find(int offset) {
+		int i = Arrays.binarySearch(starts, 0, count, offset);
+		if(i < 0) i = -i - 2;
+		else while(i + 1 < count && starts[i + 1] == offset) i++; // Nested ranges can start at the same offset
+
+		while(i != -1 && ends[i] <= offset) i = parents[i];
+		return i;
+	}
+
+	// Returns the innermost range of the given type containing the offset, -1 if there is none
+	public int find(int offset, int type) {
+		int i = find(offset);
+		while(i != -1 && types[i] != type) i = parents[i];
+		return i;
+	}
+
+	public int findMember(int type, String name) {
+		for(int i = 0; i < count; i++) {
+			if(parents[i] == -1 && types[i] == type && names[i].equals(name)) return i;
+		}
+		return -1;
+	}
+
+	// Keeps the index valid while the text is edited. Offsets inside the removed text move to its start, offsets at or after its end move with it
+	public void update(int position, int removed, CharSequence inserted) {
+		int removalEnd = position + removed;
+		int delta = inserted.length() - removed;
+		for(int i = 0; i < count; i++) {
+			starts[i] = shift(starts[i], position, removalEnd, delta);
+			ends[i] = shift(ends[i], position, removalEnd, delta);
+		}
+
+		// Line starts are one past a newline, so the ones in (position, removalEnd] belong to removed newlines
+		int first = lineAfter(position);
+		int last = lineAfter(removalEnd);
+		int added = 0;
+		for(int i = 0; i < inserted.length(); i++) {
+			if(inserted.charAt(i) == '\n') added++;
+		}
+
+		int newCount = lineCount - (last - first) + added;
+		int[] lines = newCount > lineStarts.length ? Arrays.copyOf(lineStarts, Math.max(newCount, lineStarts.length * 2)) : lineStarts;
+		System.arraycopy(lineStarts, last, lines, first + added, lineCount - last);
+		for(int i = first + added; i < newCount; i++) lines[i] += delta;
+		for(int i = 0, line = first; i < inserted.length(); i++) {
+			if(inserted.charAt(i) == '\n') lines[line++] = position + i + 1;
+		}
+
+		lineStarts = lines;
+		lineCount = newCount;
+		length += delta;
+	}
+
+	private static int shift(int offset, int position, int removalEnd, int delta) {
+		if(offset < position) return offset;
+		if(offset < removalEnd) return position;
+		return offset + delta;
+	}
+
+	// Index of the first line starting after the offset
+	private int lineAfter(int offset) {
+		int i = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+		return i >= 0 ? i + 1 : -i - 1;
+	}
+
+	private void addLines(CharSequence text, int start, int end, int offset) {
+		for(int i = start; i < end; i++) {
+			if(text.charAt(i) == '\n') addLine(offset + i - start + 1);
+		}
+	}
+
+	private void addLine(int start) {
+		if(lineCount == lineStarts.length) lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+		lineStarts[lineCount++] = start;
+	}
+
+	// Only the ranges are written, the line starts are recomputed from the text when reading
+	void write(DataOutput out) throws IOException {
+		out.writeInt(count);
+		for(int i = 0; i < count; i++) {
+			out.writeByte(types[i]);
+			out.writeUTF(names[i]);
+			out.writeInt(values[i]);
+			out.writeInt(starts[i]);
+			out.writeInt(ends[i]);
+			out.writeInt(parents[i]);
+		}
+	}
+
+	static FormatIndex read(DataInput in, CharSequence text) throws IOException {
+		FormatIndex index = lines(text);
+		int count = in.readInt();
+		if(count < 0) throw new IOException("Invalid range count");
+
+		index.count = count;
+		index.types = new int[count];
+		index.names = new String[count];
+		index.values = new int[count];
+		index.starts = new int[count];
+		index.ends = new int[count];
+		index.parents = new int[count];
+		for(int i = 0; i < count; i++) {
+			index.types[i] = in.readByte();
+			index.names[i] = in.readUTF();
+			index.values[i] = in.readInt();
+			index.starts[i] = in.readInt();
+			index.ends[i] = in.readInt();
+			index.parents[i] = in.readInt();
+		}
+		return index;
+	}
+
+	public String describe(int offset) {
+		StringBuilder b = new StringBuilder();
+		for(int i = find(offset); i != -1; i = parents[i]) {
+			if(b.length() != 0) b.insert(0, ", ");
+			switch(types[i]) {
+				case CONSTANT_POOL:
+					b.insert(0, "constant pool");
+					break;
+				case INSTRUCTION:
+					b.insert(0, "instruction " + names[i] + " at offset " + values[i]);
+					break;
+				case ATTRIBUTE:
+					b.insert(0, "attribute " + names[i]);
+					break;
+				case FIELD:
+					b.insert(0, "field " + names[i]);
+					break;
+				case METHOD:
+					b.insert(0, "method " + names[i]);
+					break;
+			}
+		}
+		return b.length() == 0 ? "class header" : b.toString();
+	}
+
+	static void begin(Appendable b, int type, String name, int value) {
+		if(b instanceof Builder) ((Builder) b).begin(type, name, value);
+	}
+
+	static void end(Appendable b) {
+		if(b instanceof Builder) ((Builder) b).end();
+	}
+
+	// Passes the formatted text on to another Appendable while recording the index
+	public static class Builder implements Appendable {
+
+		private Appendable out;
+		private FormatIndex index;
+		private int length;
+		private int[] open;
+		private int depth;
+
+		public Builder(Appendable out) {
+			this.out = out;
+			this.index = new FormatIndex();
+			this.open = new int[16];
+		}
+
+		private void begin(int type, String name, int value) {
+			FormatIndex i = index;
+			if(i.count == i.types.length) {
+				int size = i.count * 2;
+				i.types = Arrays.copyOf(i.types, size);
+				i.names = Arrays.copyOf(i.names, size);
+				i.values = Arrays.copyOf(i.values, size);
+				i.starts = Arrays.copyOf(i.starts, size);
+				i.ends = Arrays.copyOf(i.ends, size);
+				i.parents = Arrays.copyOf(i.parents, size);
+			}
+
+			i.types[i.count] = type;
+			i.names[i.count] = name;
+			i.values[i.count] = value;
+			i.starts[i.count] = length;
+			i.parents[i.count] = depth == 0 ? -1 : open[depth - 1];
+
+			if(depth == open.length) open = Arrays.copyOf(open, depth * 2);
+			open[depth++] = i.count++;
+		}
+
+		private void end() {
+			index.ends[open[--depth]] = length;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) throws IOException {
+			return append(csq, 0, csq.length());
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) throws IOException {
+			index.addLines(csq, start, end, length);
+			out.append(csq, start, end);
+			length += end - start;
+			return this;
+		}
+
+		@Override
+		public Appendable append(char c) throws IOException {
+			out.append(c);
+			length++;
+			if(c == '\n') index.addLine(length);
+			return this;
+		}
+
+		public FormatIndex build() {
+			if(depth != 0) throw new IllegalStateException("Unclosed range");
+			index.length = length;
+			return index;
+		}
+
+	}
+
+}
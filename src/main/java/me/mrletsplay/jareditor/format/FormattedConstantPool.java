@@ -0,0 +1,33 @@
+package me.mrletsplay.jareditor.format;
+
+import me.mrletsplay.mrcore.misc.classfile.ClassFile;
+import me.mrletsplay.mrcore.misc.classfile.pool.entry.ConstantPoolEntry;
+
+// Formatted constant pool entries of a class, indexed by pool index and filled in on first use
+class FormattedConstantPool {
+
+	private ClassFile classFile;
+	private String[] entries;
+
+	public FormattedConstantPool(ClassFile classFile) {
+		this.classFile = classFile;
+		this.entries = new String[classFile.getConstantPool().getEntries().length + 1];
+	}
+
+	public ClassFile getClassFile() {
+		return classFile;
+	}
+
+	public String get(int index) {
+		if(index <= 0 || index >= entries.length) return format(index);
+		String entry = entries[index];
+		if(entry == null) entries[index] = entry = format(index);
+		return entry;
+	}
+
+	private String format(int index) {
+		ConstantPoolEntry entry = classFile.getConstantPool().getEntry(index);
+		return ClassFileFormatter.formatConstantPoolEntry(classFile, entry).toString();
+	}
+
+}
@@ -0,0 +1,97 @@
+package me.mrletsplay.jareditor.format;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hashes of the text of every top-level field, method and attribute block, used to find the members that weren't edited since the text was formatted
+public class MemberHashes {
+
+	private static final int AMBIGUOUS = -2;
+
+	private Map<Long, Integer> fields, methods, attributes;
+
+	private MemberHashes() {
+		this.fields = new HashMap<>();
+		this.methods = new HashMap<>();
+		this.attributes = new HashMap<>();
+	}
+
+	// The text must be the one the original class was formatted to, blocks are numbered in the order they appear in
+	public static MemberHashes of(String text) {
+		MemberHashes hashes = new MemberHashes();
+		TokenStream tokens = TokenStream.lex(text);
+		int fieldCount = 0, methodCount = 0, attributeCount = 0;
+		int t;
+		while((t = tokens.next()) != -1) {
+			int type = getType(tokens, t);
+			int end = getBlockEnd(tokens, t);
+			if(end == -1) continue;
+			tokens.reset(end + 1);
+
+			long hash = hash(text, tokens.getStart(t), tokens.getEnd(end));
+			switch(type) {
+				case FormatIndex.FIELD:
+					hashes.fields.merge(hash, fieldCount++, (a, b) -> AMBIGUOUS);
+					break;
+				case FormatIndex.METHOD:
+					hashes.methods.merge(hash, methodCount++, (a, b) -> AMBIGUOUS);
+					break;
+				case FormatIndex.ATTRIBUTE:
+					hashes.attributes.merge(hash, attributeCount++, (a, b) -> AMBIGUOUS);
+					break;
+			}
+		}
+		return hashes;
+	}
+
+	// Returns the index of the original member with the same text, -1 if there is none
+	int find(int type, CharSequence str, int start, int end) {
+		Map<Long, Integer> map;
+		switch(type) {
+			case FormatIndex.FIELD:
+				map = fields;
+				break;
+			case FormatIndex.METHOD:
+				map = methods;
+				break;
+			case FormatIndex.ATTRIBUTE:
+				map = attributes;
+				break;
+			default:
+				return -1;
+		}
+
+		Integer index = map.get(hash(str, start, end));
+		return index == null || index == AMBIGUOUS ? -1 : index;
+	}
+
+	static int getType(TokenStream tokens, int keyword) {
+		if(tokens.is(keyword, "field")) return FormatIndex.FIELD;
+		if(tokens.is(keyword, "method")) return FormatIndex.METHOD;
+		if(tokens.is(keyword, "attribute")) return FormatIndex.ATTRIBUTE;
+		if(tokens.is(keyword, "constantpool")) return FormatIndex.CONSTANT_POOL;
+		return -1;
+	}
+
+	// Returns the closing brace of the block belonging to a top-level keyword, -1 if there is none
+	static int getBlockEnd(TokenStream tokens, int keyword) {
+		int type = getType(tokens, keyword);
+		if(type == -1) return -1;
+
+		int open = type == FormatIndex.CONSTANT_POOL ? keyword + 1 : keyword + 2;
+		if(open >= tokens.size() || !tokens.isOpen(open)) return -1;
+		if(type != FormatIndex.CONSTANT_POOL && !tokens.isWord(keyword + 1)) return -1;
+		return tokens.getMatch(open);
+	}
+
+	// 64-bit FNV-1a, a 32-bit hash would make collisions between edited and original members too likely in large classes
+	private static long hash(CharSequence str, int start, int end) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = start; i < end; i++) {
+			hash ^= str.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+}
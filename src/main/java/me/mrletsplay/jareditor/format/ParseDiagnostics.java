@@ -0,0 +1,53 @@
+package me.mrletsplay.jareditor.format;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Collects the errors of a single parse, which continues at the next block or instruction after an error instead of stopping at the first one
+public class ParseDiagnostics {
+
+	private List<ParseError> errors;
+	private FormatIndex lines;
+
+	public ParseDiagnostics(CharSequence text) {
+		this(FormatIndex.lines(text));
+	}
+
+	// The index must describe the text that is parsed, only its line starts are used
+	public ParseDiagnostics(FormatIndex lines) {
+		this.errors = new ArrayList<>();
+		this.lines = lines;
+	}
+
+	// Method bodies may be read in parallel
+	synchronized void add(ParseError error) {
+		if(errors.contains(error)) return; // Errors are reported again by the blocks containing them
+		errors.add(error);
+	}
+
+	public synchronized boolean hasErrors() {
+		return !errors.isEmpty();
+	}
+
+	// Sorted by position, independent of the order the errors were found in
+	public synchronized List<ParseError> getErrors() {
+		List<ParseError> sorted = new ArrayList<>(errors);
+		sorted.sort(Comparator.comparingInt(ParseError::getIndex));
+		return sorted;
+	}
+
+	// Line and column are 1-based
+	public int getLine(int index) {
+		return lines.getLine(index) + 1;
+	}
+
+	public int getColumn(int index) {
+		return index - lines.getLineStart(lines.getLine(index)) + 1;
+	}
+
+	public String formatPosition(int index) {
+		return getLine(index) + ":" + getColumn(index);
+	}
+
+}
@@ -4,13 +4,20 @@ public class ParseError extends RuntimeException {
 
 	private static final long serialVersionUID = 3216364357326303484L;
 
+	private String description;
 	private int index;
 
 	public ParseError(String message, int index) {
 		super(message + " at index " + index);
+		this.description = message;
 		this.index = index;
 	}
 
+	// The message without the index, for output that shows the position itself
+	public String getDescription() {
+		return description;
+	}
+
 	public int getIndex() {
 		return index;
 	}
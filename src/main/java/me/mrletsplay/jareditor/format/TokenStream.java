@@ -0,0 +1,160 @@
+package me.mrletsplay.jareditor.format;
+
+import java.util.Arrays;
+
+import me.mrletsplay.jareditor.format.string.StringView;
+
+// Splits a document into words and braces in a single pass and pairs up every brace with its counterpart
+class TokenStream {
+
+	private CharSequence str;
+	private int count;
+	private int[] starts;
+	private int[] ends;
+	private int[] matches; // Index of the matching brace, -1 for unmatched braces and words
+	private int index;
+
+	private TokenStream(CharSequence str) {
+		this.str = str;
+		int capacity = Math.max(16, str.length() / 4);
+		this.starts = new int[capacity];
+		this.ends = new int[capacity];
+		this.matches = new int[capacity];
+	}
+
+	public static TokenStream lex(CharSequence str) {
+		TokenStream tokens = new TokenStream(str);
+		int[] open = new int[16];
+		int depth = 0;
+
+		int length = str.length();
+		int i = 0;
+		while(i < length) {
+			char c = str.charAt(i);
+			if(Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+
+			if(c == '{') {
+				if(depth == open.length) open = Arrays.copyOf(open, depth * 2);
+				open[depth++] = tokens.add(i, i + 1);
+				i++;
+				continue;
+			}
+
+			if(c == '}') {
+				int t = tokens.add(i, i + 1);
+				if(depth > 0) {
+					int o = open[--depth];
+					tokens.matches[o] = t;
+					tokens.matches[t] = o;
+				}
+				i++;
+				continue;
+			}
+
+			int start = i;
+			while(i < length) {
+				c = str.charAt(i);
+				if(Character.isWhitespace(c) || c == '{' || c == '}') break;
+				i++;
+			}
+			tokens.add(start, i);
+		}
+
+		return tokens;
+	}
+
+	private int add(int start, int end) {
+		if(count == starts.length) {
+			int size = count * 2;
+			starts = Arrays.copyOf(starts, size);
+			ends = Arrays.copyOf(ends, size);
+			matches = Arrays.copyOf(matches, size);
+		}
+
+		starts[count] = start;
+		ends[count] = end;
+		matches[count] = -1;
+		return count++;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int mark() {
+		return index;
+	}
+
+	public TokenStream reset(int mark) {
+		this.index = mark;
+		return this;
+	}
+
+	public int next() {
+		return index < count ? index++ : -1;
+	}
+
+	public int peek() {
+		return index < count ? index : -1;
+	}
+
+	public boolean isOpen(int token) {
+		return ends[token] - starts[token] == 1 && str.charAt(starts[token]) == '{';
+	}
+
+	public boolean isClose(int token) {
+		return ends[token] - starts[token] == 1 && str.charAt(starts[token]) == '}';
+	}
+
+	public int getStart(int token) {
+		return starts[token];
+	}
+
+	public int getEnd(int token) {
+		return ends[token];
+	}
+
+	public int getMatch(int token) {
+		return matches[token];
+	}
+
+	public StringView view(int token) {
+		return new StringView(str, starts[token], ends[token]);
+	}
+
+	// From the start of the first to the end of the last token
+	public StringView view(int first, int last) {
+		return new StringView(str, starts[first], ends[last]);
+	}
+
+	public String string(int token) {
+		return str.subSequence(starts[token], ends[token]).toString();
+	}
+
+	public boolean isWord(int token) {
+		return !isOpen(token) && !isClose(token);
+	}
+
+	public boolean is(int token, String word) {
+		if(ends[token] - starts[token] != word.length()) return false;
+		for(int i = 0; i < word.length(); i++) {
+			if(str.charAt(starts[token] + i) != word.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	public boolean contains(int token, char c) {
+		for(int i = starts[token]; i < ends[token]; i++) {
+			if(str.charAt(i) == c) return true;
+		}
+		return false;
+	}
+
+	public int getLength() {
+		return str.length();
+	}
+
+}
@@ -9,14 +9,18 @@ public class ParserAttribute {
 
 	private String name;
 	private ParseString info;
+	private int infoToken; // Opening brace of the info block in the tokens of the document
 	private Map<String, String> properties;
 	private List<ParserAttribute> attributes;
+	private CharSequence text; // The whole block, from the attribute keyword to the closing brace
 
-	public ParserAttribute(String name, ParseString info, Map<String, String> properties, List<ParserAttribute> attributes) {
+	public ParserAttribute(String name, ParseString info, int infoToken, Map<String, String> properties, List<ParserAttribute> attributes, CharSequence text) {
 		this.name = name;
 		this.info = info;
+		this.infoToken = infoToken;
 		this.properties = properties;
 		this.attributes = attributes;
+		this.text = text;
 	}
 
 	public String getName() {
@@ -27,6 +31,10 @@ public class ParserAttribute {
 		return info;
 	}
 
+	public int getInfoToken() {
+		return infoToken;
+	}
+
 	public Map<String, String> getProperties() {
 		return properties;
 	}
@@ -35,4 +43,8 @@ public class ParserAttribute {
 		return attributes;
 	}
 
+	public CharSequence getText() {
+		return text;
+	}
+
 }
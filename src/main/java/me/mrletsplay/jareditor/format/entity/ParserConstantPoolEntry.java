@@ -0,0 +1,21 @@
+package me.mrletsplay.jareditor.format.entity;
+
+public class ParserConstantPoolEntry {
+
+	private String tag;
+	private String[] values;
+
+	public ParserConstantPoolEntry(String tag, String[] values) {
+		this.tag = tag;
+		this.values = values;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public String[] getValues() {
+		return values;
+	}
+
+}
@@ -2,10 +2,10 @@ package me.mrletsplay.jareditor.format.string;
 
 public class FullParseString implements ParseString {
 
-	String str;
+	CharSequence str;
 	int index;
 
-	public FullParseString(String str) {
+	public FullParseString(CharSequence str) {
 		this.str = str;
 	}
 
@@ -41,16 +41,21 @@ public class FullParseString implements ParseString {
 
 	@Override
 	public String next(int count) {
+		return nextView(count).toString();
+	}
+
+	@Override
+	public StringView nextView(int count) {
 		if(index + count > str.length()) throw new IllegalArgumentException("Requested count exceeds string length");
-		String string = str.substring(index, index + count);
+		StringView view = new StringView(str, index, index + count);
 		index += count;
-		return string;
+		return view;
 	}
 
 	@Override
 	public boolean expect(String str) {
-		if(str.substring(index).startsWith(str)) {
-			next(str.length());
+		if(regionMatches(this.str, index, this.str.length(), str)) {
+			index += str.length();
 			return true;
 		}
 
@@ -75,7 +80,17 @@ public class FullParseString implements ParseString {
 
 	@Override
 	public String toString() {
-		return str;
+		return str.toString();
+	}
+
+	// Checks whether other occurs at offset without reading past end
+	static boolean regionMatches(CharSequence str, int offset, int end, String other) {
+		if(offset + other.length() > end) return false;
+		if(str instanceof String) return ((String) str).regionMatches(offset, other, 0, other.length());
+		for(int i = 0; i < other.length(); i++) {
+			if(str.charAt(offset + i) != other.charAt(i)) return false;
+		}
+		return true;
 	}
 
 }
@@ -9,6 +9,7 @@ public interface ParseString {
 	public char get();
 	public char peek(int count);
 	public String next(int count);
+	public StringView nextView(int count);
 	public boolean expect(String str);
 
 	public int remaining();
@@ -26,10 +27,15 @@ public interface ParseString {
 	}
 
 	public default String nextToken() {
+		StringView token = nextTokenView();
+		return token == null ? null : token.toString();
+	}
+
+	public default StringView nextTokenView() {
 		if(end()) return null;
 		int i = 0;
 		while(i < remaining() && !Character.isWhitespace(peek(i))) i++;
-		return next(i);
+		return nextView(i);
 	}
 
 	public default ParseString nextParseToken() {
@@ -0,0 +1,70 @@
+package me.mrletsplay.jareditor.format.string;
+
+// A range of another CharSequence that is only copied when toString is called
+public class StringView implements CharSequence {
+
+	private CharSequence str;
+	private int start, end;
+
+	public StringView(CharSequence str, int start, int end) {
+		if(start < 0 || end > str.length() || start > end) throw new IndexOutOfBoundsException("Invalid range " + start + "-" + end);
+		this.str = str;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if(index < 0 || index >= end - start) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + (end - start));
+		return str.charAt(start + index);
+	}
+
+	@Override
+	public StringView subSequence(int start, int end) {
+		if(start < 0 || end > this.end - this.start || start > end) throw new IndexOutOfBoundsException("Invalid range " + start + "-" + end);
+		return new StringView(str, this.start + start, this.start + end);
+	}
+
+	public StringView subSequence(int start) {
+		return subSequence(start, length());
+	}
+
+	public int indexOf(char c) {
+		for(int i = start; i < end; i++) {
+			if(str.charAt(i) == c) return i - start;
+		}
+		return -1;
+	}
+
+	public boolean startsWith(String prefix) {
+		return FullParseString.regionMatches(str, start, end, prefix);
+	}
+
+	public boolean endsWith(String suffix) {
+		return end - start >= suffix.length() && FullParseString.regionMatches(str, end - suffix.length(), end, suffix);
+	}
+
+	public boolean contentEquals(String other) {
+		return end - start == other.length() && startsWith(other);
+	}
+
+	public boolean contentEqualsIgnoreCase(String other) {
+		if(end - start != other.length()) return false;
+		for(int i = 0; i < other.length(); i++) {
+			char a = str.charAt(start + i), b = other.charAt(i);
+			if(a != b && Character.toUpperCase(a) != Character.toUpperCase(b)) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return str.subSequence(start, end).toString();
+	}
+
+}
@@ -45,16 +45,21 @@ public class SubParseString implements ParseString {
 
 	@Override
 	public String next(int count) {
+		return nextView(count).toString();
+	}
+
+	@Override
+	public StringView nextView(int count) {
 		if(index + count > start + length) throw new IllegalArgumentException("Requested count exceeds string length");
-		String string = parent.str.substring(index, index + count);
+		StringView view = new StringView(parent.str, index, index + count);
 		index += count;
-		return string;
+		return view;
 	}
 
 	@Override
 	public boolean expect(String str) {
-		if(index + str.length() <= start + length && parent.str.substring(index).startsWith(str)) {
-			next(str.length());
+		if(FullParseString.regionMatches(parent.str, index, start + length, str)) {
+			index += str.length();
 			return true;
 		}
 		return false;
@@ -78,7 +83,7 @@ public class SubParseString implements ParseString {
 
 	@Override
 	public String toString() {
-		return parent.str.substring(start, start + length);
+		return parent.str.subSequence(start, start + length).toString();
 	}
 
 }
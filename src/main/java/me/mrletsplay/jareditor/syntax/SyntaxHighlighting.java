@@ -12,6 +12,7 @@ import java.util.stream.Collectors;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 
+import me.mrletsplay.jareditor.format.ParseError;
 import me.mrletsplay.mrcore.misc.classfile.Instruction;
 
 public class SyntaxHighlighting {
@@ -60,4 +61,33 @@ public class SyntaxHighlighting {
 		return spansBuilder.create();
 	}
 
+	// Additionally underlines every error from its position to the end of the token there, errors must be sorted by position
+	public static StyleSpans<Collection<String>> computeHighlighting(String text, List<ParseError> errors) {
+		StyleSpans<Collection<String>> highlighting = computeHighlighting(text);
+		if(errors.isEmpty() || text.isEmpty()) return highlighting;
+
+		int lastErrorEnd = 0;
+		StyleSpansBuilder<Collection<String>> spansBuilder = new StyleSpansBuilder<>();
+		for(ParseError e : errors) {
+			int start = Math.max(lastErrorEnd, Math.min(e.getIndex(), text.length() - 1));
+			if(start >= text.length()) break;
+
+			int end = start;
+			while(end < text.length() && !Character.isWhitespace(text.charAt(end))) end++;
+			if(end == start) end++; // Errors at whitespace, e.g. a missing token
+
+			spansBuilder.add(Collections.emptyList(), start - lastErrorEnd);
+			spansBuilder.add(Collections.singleton("highlight-error"), end - start);
+			lastErrorEnd = end;
+		}
+		spansBuilder.add(Collections.emptyList(), text.length() - lastErrorEnd);
+
+		return highlighting.overlay(spansBuilder.create(), (style, error) -> {
+			if(error.isEmpty()) return style;
+			List<String> styles = new ArrayList<>(style);
+			styles.addAll(error);
+			return styles;
+		});
+	}
+
 }
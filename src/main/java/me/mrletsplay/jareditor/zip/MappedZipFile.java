@@ -0,0 +1,168 @@
+package me.mrletsplay.jareditor.zip;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+public class MappedZipFile implements Closeable {
+
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+	private volatile ByteBuffer data; // Null once closed
+	private ZipIndex index;
+	private int[] sorted; // Entries sorted by name, used for directory listings
+
+	public MappedZipFile(ByteBuffer data) throws IOException {
+		this.data = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		this.index = ZipIndex.read(this.data);
+
+		String[] names = new String[index.size()];
+		for(int i = 0; i < names.length; i++) names[i] = index.getName(i);
+
+		Integer[] order = new Integer[names.length];
+		for(int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, Comparator.comparing(i -> names[i]));
+
+		this.sorted = new int[order.length];
+		for(int i = 0; i < order.length; i++) sorted[i] = order[i];
+	}
+
+	public static MappedZipFile open(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if(channel.size() > Integer.MAX_VALUE) throw new IOException("Archives larger than 2 GB can't be memory-mapped");
+			return new MappedZipFile(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	public ZipIndex getIndex() {
+		return index;
+	}
+
+	public int getArchiveSize() throws IOException {
+		return data().limit();
+	}
+
+	ByteBuffer getData() throws IOException {
+		return data().duplicate().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Reads that got the buffer before the file was closed can finish, the mapping stays valid until it is garbage collected
+	private ByteBuffer data() throws ClosedChannelException {
+		ByteBuffer data = this.data;
+		if(data == null) throw new ClosedChannelException();
+		return data;
+	}
+
+	public int getEntry(String name) {
+		return index.indexOf(name);
+	}
+
+	public boolean isDirectory(String directory) {
+		if(directory.isEmpty()) return true;
+		String prefix = directory + "/";
+		int i = lowerBound(prefix);
+		return i < sorted.length && sortedName(i).startsWith(prefix);
+	}
+
+	// Returns the names of the direct children of a directory, directories without the trailing slash
+	public List<String> list(String directory) {
+		String prefix = directory.isEmpty() ? "" : directory + "/";
+		List<String> children = new ArrayList<>();
+		String last = null;
+		for(int i = lowerBound(prefix); i < sorted.length; i++) {
+			String name = sortedName(i);
+			if(!name.startsWith(prefix)) break;
+			int end = name.indexOf('/', prefix.length());
+			String child = end == -1 ? name : name.substring(0, end);
+			if(child.length() == prefix.length() || child.equals(last)) continue;
+			children.add(last = child);
+		}
+
+		children.sort(null);
+		return children;
+	}
+
+	// Safe to call concurrently, every call works on its own view of the mapping and a per-thread inflater
+	public byte[] read(int entry) throws IOException {
+		ByteBuffer buf = getRawData(entry);
+		long size = index.getSize(entry);
+		if(size > Integer.MAX_VALUE) throw new ZipException("Entry too large");
+
+		switch(index.getMethod(entry)) {
+			case ZipIndex.METHOD_STORED:
+			{
+				byte[] bytes = new byte[buf.remaining()];
+				buf.get(bytes);
+				return bytes;
+			}
+			case ZipIndex.METHOD_DEFLATED:
+			{
+				Inflater inflater = INFLATER.get();
+				inflater.reset();
+				inflater.setInput(buf);
+
+				byte[] bytes = new byte[(int) size];
+				int off = 0;
+				try {
+					while(off < bytes.length) {
+						int n = inflater.inflate(bytes, off, bytes.length - off);
+						if(n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) throw new ZipException("Truncated entry '" + index.getName(entry) + "'");
+						off += n;
+					}
+				}catch(DataFormatException e) {
+					throw new ZipException("Invalid compressed data for entry '" + index.getName(entry) + "': " + e.getMessage());
+				}
+				return bytes;
+			}
+			default:
+				throw new ZipException("Unsupported compression method " + index.getMethod(entry));
+		}
+	}
+
+	public ByteBuffer getRawData(int entry) throws IOException {
+		ByteBuffer data = data();
+		long offset = index.getLocalHeaderOffset(entry);
+		if(offset + ZipIndex.LOC_HEADER_SIZE > data.limit() || data.getInt((int) offset) != ZipIndex.LOC_SIGNATURE) throw new ZipException("Invalid local header for entry '" + index.getName(entry) + "'");
+
+		int start = (int) offset + ZipIndex.LOC_HEADER_SIZE + (data.getShort((int) offset + 26) & 0xFFFF) + (data.getShort((int) offset + 28) & 0xFFFF);
+		long end = start + index.getCompressedSize(entry);
+		if(end > data.limit()) throw new ZipException("Truncated entry '" + index.getName(entry) + "'");
+		return data.duplicate().position(start).limit((int) end).slice();
+	}
+
+	private String sortedName(int i) {
+		return index.getName(sorted[i]);
+	}
+
+	private int lowerBound(String name) {
+		int lo = 0, hi = sorted.length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(sortedName(mid).compareTo(name) < 0) {
+				lo = mid + 1;
+			}else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	@Override
+	public void close() {
+		data = null; // The mapping itself is released once it is garbage collected
+	}
+
+}
@@ -0,0 +1,276 @@
+package me.mrletsplay.jareditor.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+public class ZipArchiveWriter {
+
+	private static final int
+		VERSION = 20,
+		VERSION_ZIP64 = 45,
+		FLAG_DATA_DESCRIPTOR = 0x08,
+		FLAG_UTF8 = 0x800;
+
+	private WritableByteChannel out;
+	private long position;
+	private ByteBuffer centralDirectory;
+	private int count;
+	private Deflater deflater;
+
+	public ZipArchiveWriter(WritableByteChannel out, long position) {
+		this.out = out;
+		this.position = position;
+		this.centralDirectory = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+	}
+
+	public ZipArchiveWriter(WritableByteChannel out) {
+		this(out, 0);
+	}
+
+	public ZipArchiveWriter(FileChannel out) throws IOException {
+		this(out, out.position());
+	}
+
+	public void copyRaw(FileChannel source, ZipIndex index, int entry) throws IOException {
+		long offset = index.getLocalHeaderOffset(entry);
+		ByteBuffer header = ByteBuffer.allocate(ZipIndex.LOC_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		ZipIndex.readFully(source, header, offset);
+		if(header.getInt(0) != ZipIndex.LOC_SIGNATURE) throw new ZipException("Invalid local header for entry '" + index.getName(entry) + "'");
+
+		long length = ZipIndex.LOC_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF) + index.getCompressedSize(entry);
+		if((index.getFlags(entry) & FLAG_DATA_DESCRIPTOR) != 0) {
+			ByteBuffer sig = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			ZipIndex.readFully(source, sig, offset + length);
+			length += descriptorLength(sig.getInt(0), index, entry);
+		}
+
+		long newOffset = position;
+		transfer(source, offset, length);
+		appendCopiedRecord(index, entry, newOffset);
+	}
+
+	public void copyRaw(MappedZipFile source, int entry) throws IOException {
+		ZipIndex index = source.getIndex();
+		ByteBuffer data = source.getData();
+		long offset = index.getLocalHeaderOffset(entry);
+		if(offset + ZipIndex.LOC_HEADER_SIZE > data.limit() || data.getInt((int) offset) != ZipIndex.LOC_SIGNATURE) throw new ZipException("Invalid local header for entry '" + index.getName(entry) + "'");
+
+		long length = ZipIndex.LOC_HEADER_SIZE + (data.getShort((int) offset + 26) & 0xFFFF) + (data.getShort((int) offset + 28) & 0xFFFF) + index.getCompressedSize(entry);
+		if((index.getFlags(entry) & FLAG_DATA_DESCRIPTOR) != 0) {
+			if(offset + length + 4 > data.limit()) throw new ZipException("Unexpected end of file");
+			length += descriptorLength(data.getInt((int) (offset + length)), index, entry);
+		}
+		if(offset + length > data.limit()) throw new ZipException("Unexpected end of file");
+
+		long newOffset = position;
+		write(data.duplicate().position((int) offset).limit((int) (offset + length)));
+		appendCopiedRecord(index, entry, newOffset);
+	}
+
+	private void appendCopiedRecord(ZipIndex index, int entry, long newOffset) throws ZipException {
+		ByteBuffer record = copyOf(index.getRecord(entry));
+		if((record.getInt(42) & 0xFFFFFFFFL) == ZipIndex.ZIP64_MAGIC) {
+			patchZip64Offset(record, newOffset);
+		}else {
+			if(newOffset >= ZipIndex.ZIP64_MAGIC) throw new ZipException("Archive too large");
+			record.putInt(42, (int) newOffset);
+		}
+
+		appendRecord(record);
+	}
+
+	public void writeEntry(String name, byte[] contents, int method, int dosTime) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+
+		byte[] data;
+		if(method == ZipIndex.METHOD_STORED) {
+			data = contents;
+		}else if(method == ZipIndex.METHOD_DEFLATED) {
+			data = deflate(contents);
+		}else {
+			throw new ZipException("Unsupported compression method " + method);
+		}
+
+		if(position >= ZipIndex.ZIP64_MAGIC) throw new ZipException("Archive too large");
+
+		byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer header = ByteBuffer.allocate(ZipIndex.LOC_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(ZipIndex.LOC_SIGNATURE);
+		header.putShort((short) VERSION);
+		header.putShort((short) FLAG_UTF8);
+		header.putShort((short) method);
+		header.putInt(dosTime);
+		header.putInt((int) crc.getValue());
+		header.putInt(data.length);
+		header.putInt(contents.length);
+		header.putShort((short) nameBytes.length);
+		header.putShort((short) 0);
+		header.put(nameBytes);
+		header.flip();
+
+		long offset = position;
+		write(header);
+		write(ByteBuffer.wrap(data));
+
+		ByteBuffer record = ByteBuffer.allocate(ZipIndex.CEN_HEADER_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(ZipIndex.CEN_SIGNATURE);
+		record.putShort((short) VERSION);
+		record.putShort((short) VERSION);
+		record.putShort((short) FLAG_UTF8);
+		record.putShort((short) method);
+		record.putInt(dosTime);
+		record.putInt((int) crc.getValue());
+		record.putInt(data.length);
+		record.putInt(contents.length);
+		record.putShort((short) nameBytes.length);
+		record.putShort((short) 0); // Extra
+		record.putShort((short) 0); // Comment
+		record.putShort((short) 0); // Disk
+		record.putShort((short) 0); // Internal attributes
+		record.putInt(0); // External attributes
+		record.putInt((int) offset);
+		record.put(nameBytes);
+		record.flip();
+		appendRecord(record);
+	}
+
+	public void finish() throws IOException {
+		long cenOffset = position;
+		long cenSize = centralDirectory.position();
+		centralDirectory.flip();
+		write(centralDirectory);
+
+		boolean zip64 = count >= 0xFFFF || cenOffset >= ZipIndex.ZIP64_MAGIC || cenSize >= ZipIndex.ZIP64_MAGIC;
+		ByteBuffer end = ByteBuffer.allocate(56 + ZipIndex.ZIP64_LOCATOR_SIZE + ZipIndex.END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		if(zip64) {
+			long zip64EndOffset = position;
+			end.putInt(ZipIndex.ZIP64_END_SIGNATURE);
+			end.putLong(44);
+			end.putShort((short) VERSION_ZIP64);
+			end.putShort((short) VERSION_ZIP64);
+			end.putInt(0);
+			end.putInt(0);
+			end.putLong(count);
+			end.putLong(count);
+			end.putLong(cenSize);
+			end.putLong(cenOffset);
+
+			end.putInt(ZipIndex.ZIP64_LOCATOR_SIGNATURE);
+			end.putInt(0);
+			end.putLong(zip64EndOffset);
+			end.putInt(1);
+		}
+
+		end.putInt(ZipIndex.END_SIGNATURE);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(count, 0xFFFF));
+		end.putShort((short) Math.min(count, 0xFFFF));
+		end.putInt((int) Math.min(cenSize, ZipIndex.ZIP64_MAGIC));
+		end.putInt((int) Math.min(cenOffset, ZipIndex.ZIP64_MAGIC));
+		end.putShort((short) 0);
+		end.flip();
+		write(end);
+
+		deflater.end();
+	}
+
+	private byte[] deflate(byte[] contents) {
+		deflater.reset();
+		deflater.setInput(contents);
+		deflater.finish();
+
+		ByteArrayOutputStream bOut = new ByteArrayOutputStream(Math.max(contents.length / 2, 64));
+		byte[] buf = new byte[8192];
+		while(!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			bOut.write(buf, 0, n);
+		}
+
+		return bOut.toByteArray();
+	}
+
+	private static long descriptorLength(int signature, ZipIndex index, int entry) {
+		boolean zip64 = index.getCompressedSize(entry) >= ZipIndex.ZIP64_MAGIC || index.getSize(entry) >= ZipIndex.ZIP64_MAGIC;
+		int length = zip64 ? 20 : 12;
+		if(signature == ZipIndex.DESCRIPTOR_SIGNATURE) length += 4;
+		return length;
+	}
+
+	private void transfer(FileChannel source, long offset, long length) throws IOException {
+		long done = 0;
+		while(done < length) {
+			long n = source.transferTo(offset + done, length - done, out);
+			if(n <= 0) throw new ZipException("Unexpected end of file");
+			done += n;
+		}
+
+		position += length;
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) position += out.write(buffer);
+	}
+
+	private void appendRecord(ByteBuffer record) {
+		if(centralDirectory.remaining() < record.remaining()) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(centralDirectory.capacity() * 2, centralDirectory.position() + record.remaining())).order(ByteOrder.LITTLE_ENDIAN);
+			centralDirectory.flip();
+			bigger.put(centralDirectory);
+			centralDirectory = bigger;
+		}
+
+		centralDirectory.put(record);
+		count++;
+	}
+
+	private static ByteBuffer copyOf(ByteBuffer record) {
+		ByteBuffer copy = ByteBuffer.allocate(record.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+		copy.put(record.duplicate());
+		copy.flip();
+		return copy;
+	}
+
+	private static void patchZip64Offset(ByteBuffer record, long newOffset) throws ZipException {
+		int extra = ZipIndex.CEN_HEADER_SIZE + (record.getShort(28) & 0xFFFF);
+		int extraEnd = extra + (record.getShort(30) & 0xFFFF);
+		while(extra + 4 <= extraEnd) {
+			int id = record.getShort(extra) & 0xFFFF;
+			int length = record.getShort(extra + 2) & 0xFFFF;
+			if(id == 0x0001) {
+				int off = extra + 4;
+				if((record.getInt(24) & 0xFFFFFFFFL) == ZipIndex.ZIP64_MAGIC) off += 8;
+				if((record.getInt(20) & 0xFFFFFFFFL) == ZipIndex.ZIP64_MAGIC) off += 8;
+				if(off + 8 > extra + 4 + length) break;
+				record.putLong(off, newOffset);
+				return;
+			}
+
+			extra += 4 + length;
+		}
+
+		throw new ZipException("Missing Zip64 extra field");
+	}
+
+	public static int toDosTime(LocalDateTime time) {
+		if(time.getYear() < 1980) return (1 << 21) | (1 << 16);
+		return (time.getYear() - 1980) << 25
+			| time.getMonthValue() << 21
+			| time.getDayOfMonth() << 16
+			| time.getHour() << 11
+			| time.getMinute() << 5
+			| time.getSecond() >> 1;
+	}
+
+}
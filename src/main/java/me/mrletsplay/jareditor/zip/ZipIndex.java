@@ -0,0 +1,267 @@
+package me.mrletsplay.jareditor.zip;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipException;
+
+public class ZipIndex {
+
+	public static final int
+		METHOD_STORED = 0,
+		METHOD_DEFLATED = 8;
+
+	static final int
+		LOC_SIGNATURE = 0x04034b50,
+		CEN_SIGNATURE = 0x02014b50,
+		END_SIGNATURE = 0x06054b50,
+		ZIP64_END_SIGNATURE = 0x06064b50,
+		ZIP64_LOCATOR_SIGNATURE = 0x07064b50,
+		DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+	static final int
+		LOC_HEADER_SIZE = 30,
+		CEN_HEADER_SIZE = 46,
+		END_HEADER_SIZE = 22,
+		ZIP64_LOCATOR_SIZE = 20;
+
+	static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+	private ByteBuffer cen;
+	private int[] offsets;
+	private int[] nameHashes;
+	private int[] hashTable; // Entry index + 1, 0 for empty slots
+
+	private ZipIndex(ByteBuffer cen, int count, ReadListener listener) throws IOException {
+		this.cen = cen.order(ByteOrder.LITTLE_ENDIAN);
+		this.offsets = new int[count];
+		this.nameHashes = new int[count];
+		this.hashTable = new int[Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1];
+
+		int pos = 0;
+		for(int i = 0; i < count; i++) {
+			if(pos + CEN_HEADER_SIZE > cen.limit() || cen.getInt(pos) != CEN_SIGNATURE) throw new ZipException("Invalid central directory header for entry " + i);
+			offsets[i] = pos;
+
+			int hash = hash(cen, pos + CEN_HEADER_SIZE, u16(pos + 28));
+			nameHashes[i] = hash;
+			int slot = hash & (hashTable.length - 1);
+			while(hashTable[slot] != 0) slot = (slot + 1) & (hashTable.length - 1);
+			hashTable[slot] = i + 1;
+
+			pos += CEN_HEADER_SIZE + u16(pos + 28) + u16(pos + 30) + u16(pos + 32);
+			if(listener != null) listener.entryRead(this, i, count);
+		}
+	}
+
+	public int size() {
+		return offsets.length;
+	}
+
+	public String getName(int entry) {
+		int pos = offsets[entry];
+		byte[] name = new byte[u16(pos + 28)];
+		cen.duplicate().position(pos + CEN_HEADER_SIZE).get(name);
+		return new String(name, StandardCharsets.UTF_8);
+	}
+
+	public boolean isDirectory(int entry) {
+		int pos = offsets[entry];
+		int nameLength = u16(pos + 28);
+		return nameLength > 0 && cen.get(pos + CEN_HEADER_SIZE + nameLength - 1) == '/';
+	}
+
+	public int getFlags(int entry) {
+		return u16(offsets[entry] + 8);
+	}
+
+	public int getMethod(int entry) {
+		return u16(offsets[entry] + 10);
+	}
+
+	public int getDosTime(int entry) {
+		return cen.getInt(offsets[entry] + 12);
+	}
+
+	public long getCrc(int entry) {
+		return u32(offsets[entry] + 16);
+	}
+
+	public long getCompressedSize(int entry) {
+		long size = u32(offsets[entry] + 20);
+		if(size == ZIP64_MAGIC) return zip64Field(entry, 1);
+		return size;
+	}
+
+	public long getSize(int entry) {
+		long size = u32(offsets[entry] + 24);
+		if(size == ZIP64_MAGIC) return zip64Field(entry, 0);
+		return size;
+	}
+
+	public long getLocalHeaderOffset(int entry) {
+		long offset = u32(offsets[entry] + 42);
+		if(offset == ZIP64_MAGIC) return zip64Field(entry, 2);
+		return offset;
+	}
+
+	public int indexOf(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		int hash = hash(buf, 0, bytes.length);
+		int slot = hash & (hashTable.length - 1);
+		int entry;
+		while((entry = hashTable[slot] - 1) != -1) {
+			if(nameHashes[entry] == hash && nameEquals(entry, buf)) return entry;
+			slot = (slot + 1) & (hashTable.length - 1);
+		}
+
+		return -1;
+	}
+
+	private boolean nameEquals(int entry, ByteBuffer name) {
+		int pos = offsets[entry];
+		if(u16(pos + 28) != name.limit()) return false;
+		return cen.duplicate().position(pos + CEN_HEADER_SIZE).limit(pos + CEN_HEADER_SIZE + name.limit()).equals(name);
+	}
+
+	private static int hash(ByteBuffer buf, int offset, int length) {
+		int hash = 0;
+		for(int i = 0; i < length; i++) hash = 31 * hash + buf.get(offset + i);
+		return hash;
+	}
+
+	ByteBuffer getRecord(int entry) {
+		int pos = offsets[entry];
+		int length = CEN_HEADER_SIZE + u16(pos + 28) + u16(pos + 30) + u16(pos + 32);
+		return cen.duplicate().position(pos).limit(pos + length).slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private long zip64Field(int entry, int field) {
+		int pos = offsets[entry];
+		boolean[] present = {
+			u32(pos + 24) == ZIP64_MAGIC,
+			u32(pos + 20) == ZIP64_MAGIC,
+			u32(pos + 42) == ZIP64_MAGIC
+		};
+
+		int extra = pos + CEN_HEADER_SIZE + u16(pos + 28);
+		int extraEnd = extra + u16(pos + 30);
+		while(extra + 4 <= extraEnd) {
+			int id = u16(extra);
+			int length = u16(extra + 2);
+			if(id == 0x0001) {
+				int off = extra + 4;
+				for(int i = 0; i < field; i++) {
+					if(present[i]) off += 8;
+				}
+
+				if(off + 8 > extra + 4 + length) break;
+				return cen.getLong(off);
+			}
+
+			extra += 4 + length;
+		}
+
+		throw new IllegalStateException("Missing Zip64 extra field for entry " + entry);
+	}
+
+	private int u16(int pos) {
+		return cen.getShort(pos) & 0xFFFF;
+	}
+
+	private long u32(int pos) {
+		return cen.getInt(pos) & 0xFFFFFFFFL;
+	}
+
+	public static ZipIndex read(FileChannel channel) throws IOException {
+		return read(channel, null);
+	}
+
+	public static ZipIndex read(FileChannel channel, ReadListener listener) throws IOException {
+		long fileSize = channel.size();
+		int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT_LENGTH + ZIP64_LOCATOR_SIZE);
+		ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, tail, fileSize - tailSize);
+
+		int end = findEnd(tail);
+		if(end == -1) throw new ZipException("End of central directory not found");
+
+		long count = tail.getShort(end + 10) & 0xFFFF;
+		long cenSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+		long cenOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+		int locator = end - ZIP64_LOCATOR_SIZE;
+		if(locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+			ByteBuffer zip64End = ByteBuffer.allocate(56).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, zip64End, tail.getLong(locator + 8));
+			if(zip64End.getInt(0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid Zip64 end of central directory");
+			count = zip64End.getLong(32);
+			cenSize = zip64End.getLong(40);
+			cenOffset = zip64End.getLong(48);
+		}
+
+		if(count > Integer.MAX_VALUE || cenSize > Integer.MAX_VALUE || cenOffset + cenSize > fileSize) throw new ZipException("Invalid central directory size");
+
+		ByteBuffer cen = ByteBuffer.allocate((int) cenSize);
+		readFully(channel, cen, cenOffset);
+		return new ZipIndex(cen, (int) count, listener);
+	}
+
+	public static ZipIndex read(ByteBuffer archive) throws IOException {
+		archive = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int tailSize = Math.min(archive.limit(), END_HEADER_SIZE + MAX_COMMENT_LENGTH + ZIP64_LOCATOR_SIZE);
+		int tailStart = archive.limit() - tailSize;
+		ByteBuffer tail = archive.duplicate().position(tailStart).slice().order(ByteOrder.LITTLE_ENDIAN);
+
+		int end = findEnd(tail);
+		if(end == -1) throw new ZipException("End of central directory not found");
+		end += tailStart;
+
+		long count = archive.getShort(end + 10) & 0xFFFF;
+		long cenSize = archive.getInt(end + 12) & 0xFFFFFFFFL;
+		long cenOffset = archive.getInt(end + 16) & 0xFFFFFFFFL;
+
+		int locator = end - ZIP64_LOCATOR_SIZE;
+		if(locator >= 0 && archive.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+			long zip64End = archive.getLong(locator + 8);
+			if(zip64End < 0 || zip64End + 56 > archive.limit() || archive.getInt((int) zip64End) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid Zip64 end of central directory");
+			count = archive.getLong((int) zip64End + 32);
+			cenSize = archive.getLong((int) zip64End + 40);
+			cenOffset = archive.getLong((int) zip64End + 48);
+		}
+
+		if(count > Integer.MAX_VALUE || cenSize > Integer.MAX_VALUE || cenOffset + cenSize > archive.limit()) throw new ZipException("Invalid central directory size");
+
+		ByteBuffer cen = archive.duplicate().position((int) cenOffset).limit((int) (cenOffset + cenSize)).slice();
+		return new ZipIndex(cen, (int) count, null);
+	}
+
+	// Called after every entry of the central directory is read, the entries up to it can already be accessed. Throwing aborts the read
+	public interface ReadListener {
+
+		public void entryRead(ZipIndex index, int entry, int count) throws IOException;
+
+	}
+
+	static int findEnd(ByteBuffer tail) {
+		for(int i = tail.limit() - END_HEADER_SIZE; i >= 0; i--) {
+			if(tail.getInt(i) == END_SIGNATURE) return i;
+		}
+
+		return -1;
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int n = channel.read(buffer, position + buffer.position());
+			if(n == -1) throw new ZipException("Unexpected end of file");
+		}
+		buffer.flip();
+	}
+
+}